@@ -0,0 +1,247 @@
+package quest.flo;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class that runs commands on the train system without asking for input, for scripts.
+ * One command per line, empty lines and lines starting with # are skipped:
+ * <ul>
+ *     <li>create trainNr f|b yyyy-mm-dd hh:mm yyyy-mm-dd hh:mm - create a Route (direction, departure, arrival)</li>
+ *     <li>list - print all Routes</li>
+ *     <li>get routeId - print one Route</li>
+ *     <li>departures stationId yyyy-mm-dd hh:mm - print the number of departures in that hour</li>
+ *     <li>refresh - reload the Routes from the database</li>
+ * </ul>
+ * Consecutive create commands are collected and inserted as one batch before the next other command runs or at the end.
+ * The Routes are only refreshed when a command reads them and at the end, where the created Routes are printed.
+ *
+ * @author Florian.WINDISCH
+ */
+public class CommandRunner {
+    // Logger for the CommandRunner-Class.
+    private static final Logger log = LogManager.getLogger(CommandRunner.class);
+
+    // The train system to run the commands on.
+    private final Trains trains;
+
+    // Receives the output of the commands.
+    private final PrintStream out;
+
+    // Routes of create commands that are not inserted yet.
+    private final List<Trains.NewRoute> pendingRoutes = new ArrayList<>();
+
+    // The line numbers of the pending create commands, for error messages.
+    private final List<Integer> pendingLines = new ArrayList<>();
+
+    // The ids of inserted Routes that were not printed yet, they are printed after the next refresh.
+    private final List<Integer> createdIds = new ArrayList<>();
+
+    // The number of commands that failed.
+    private int failures = 0;
+
+    /**
+     * Constructor for the CommandRunner object.
+     *
+     * @param trains The train system to run the commands on, its Routes are loaded when a command first needs them.
+     * @param out    Receives the output of the commands.
+     */
+    public CommandRunner(Trains trains, PrintStream out) {
+        this.trains = trains;
+        this.out = out;
+    }
+
+    /**
+     * Run all commands of a script.
+     * Commands that fail are reported and skipped, the following commands still run.
+     *
+     * @param script The script, one command per line.
+     * @return The number of commands that failed.
+     * @throws IOException If reading the script fails.
+     */
+    public int run(BufferedReader script) throws IOException {
+        int lineNr = 0;
+
+        for (String line = script.readLine(); line != null; line = script.readLine()) {
+            this.run(line, ++lineNr);
+        }
+
+        this.finish();
+
+        return this.failures;
+    }
+
+    /**
+     * Run commands given in one line, separated by semicolons.
+     *
+     * @param commands The commands.
+     * @return The number of commands that failed.
+     */
+    public int run(String commands) {
+        int commandNr = 0;
+
+        for (String command : commands.split(";")) {
+            this.run(command, ++commandNr);
+        }
+
+        this.finish();
+
+        return this.failures;
+    }
+
+    /**
+     * Run a single command.
+     *
+     * @param command The command.
+     * @param lineNr  The number of the command, for error messages.
+     */
+    private void run(String command, int lineNr) {
+        String trimmed = command.trim();
+
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return;
+        }
+
+        String[] words = trimmed.split("\\s+");
+
+        try {
+            if (words[0].equals("create")) {
+                this.pendingRoutes.add(parseRoute(words));
+                this.pendingLines.add(lineNr);
+                return;
+            }
+
+            this.flush();
+
+            switch (words[0]) {
+                case "list" -> {
+                    this.printCreated();
+                    this.trains.getRouteStore().forEach(this.out::print);
+                }
+                case "get" -> {
+                    expectWords(words, 2);
+                    this.printCreated();
+
+                    Route route = this.trains.getRoute(Integer.parseInt(words[1]));
+
+                    this.out.print(route == null ? "No route " + words[1] + "\n" : route);
+                }
+                case "departures" -> {
+                    expectWords(words, 4);
+                    this.printCreated();
+
+                    Timestamp hour = Trains.NewRoute.parseTimestamp(words[2] + " " + words[3]);
+
+                    this.out.println(this.trains.getStatistics().getDepartures(Integer.parseInt(words[1]), hour.toLocalDateTime()));
+                }
+                case "refresh" -> {
+                    this.trains.updateRoutes();
+                    this.printCreated();
+                }
+                default -> throw new IllegalArgumentException("Unknown command " + words[0]);
+            }
+        } catch (IllegalArgumentException | SQLException e) {
+            this.fail("Command " + lineNr + " failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Insert the Routes of the pending create commands as one batch, without refreshing the Routes.
+     */
+    private void flush() {
+        if (this.pendingRoutes.isEmpty()) {
+            return;
+        }
+
+        try {
+            for (int id : this.trains.addRoutes(this.pendingRoutes)) {
+                this.createdIds.add(id);
+            }
+        } catch (SQLException e) {
+            // None of the Routes of a rejected batch are inserted.
+            this.failures += this.pendingRoutes.size() - 1;
+            this.fail("Create commands " + this.pendingLines + " failed: " + e.getMessage());
+        }
+
+        this.pendingRoutes.clear();
+        this.pendingLines.clear();
+    }
+
+    /**
+     * Insert the pending Routes and print all created Routes, after the last command.
+     */
+    private void finish() {
+        this.flush();
+
+        try {
+            this.printCreated();
+        } catch (SQLException e) {
+            this.fail("Printing the created routes failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Refresh the Routes if they are not current and print the Routes created since the last time.
+     *
+     * @throws SQLException If refreshing the Routes fails.
+     */
+    private void printCreated() throws SQLException {
+        this.trains.updateRoutesIfStale();
+
+        RouteStore routes = this.trains.getRouteStore();
+
+        for (int id : this.createdIds) {
+            this.out.print(routes.get(id));
+        }
+
+        this.createdIds.clear();
+    }
+
+    /**
+     * Report a failed command.
+     *
+     * @param errorMessage What went wrong.
+     */
+    private void fail(String errorMessage) {
+        log.error(errorMessage);
+        this.out.println(errorMessage);
+        this.failures++;
+    }
+
+    /**
+     * Parse the Route of a create command.
+     *
+     * @param words The words of the command.
+     * @return The Route to insert.
+     */
+    private static Trains.NewRoute parseRoute(String[] words) {
+        expectWords(words, 7);
+
+        return new Trains.NewRoute(
+                Integer.parseInt(words[1]),
+                Trains.NewRoute.parseDirection(words[2]),
+                Trains.NewRoute.parseTimestamp(words[3] + " " + words[4]),
+                Trains.NewRoute.parseTimestamp(words[5] + " " + words[6])
+        );
+    }
+
+    /**
+     * Check that a command has the expected number of words.
+     *
+     * @param words    The words of the command.
+     * @param expected The expected number of words, including the command itself.
+     */
+    private static void expectWords(String[] words, int expected) {
+        if (words.length != expected) {
+            throw new IllegalArgumentException(words[0] + " expects " + (expected - 1) + " arguments, got " + (words.length - 1));
+        }
+    }
+}
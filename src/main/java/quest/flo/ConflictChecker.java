@@ -0,0 +1,305 @@
+package quest.flo;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Class that finds Routes that can not both happen: a train on two Routes at the same time,
+ * or two trains at the same Platform at the same time.
+ * A train is busy from departure to arrival, and occupies the departure Platform for a dwell time before departing
+ * and the arrival Platform for a dwell time after arriving.
+ * The busy times are kept in an interval tree per train and per Platform, following the changes of the Routes.
+ *
+ * @author Florian.WINDISCH
+ */
+public class ConflictChecker implements RouteListener {
+    // Logger for the ConflictChecker-Class.
+    private static final Logger log = LogManager.getLogger(ConflictChecker.class);
+
+    // How long a train occupies a Platform before departing and after arriving, in milliseconds.
+    private final long dwell;
+
+    // The busy times of every train, by train number.
+    private final Map<Integer, IntervalTree<Route>> trains = new HashMap<>();
+
+    // The occupied times of every Platform, by Platform-id.
+    private final Map<Integer, IntervalTree<Route>> platforms = new HashMap<>();
+
+    /**
+     * A conflict between two Routes.
+     *
+     * @param kind       If the Routes share a train or a Platform.
+     * @param resourceId The train number or Platform-id the Routes share.
+     * @param route      The Route that was checked.
+     * @param other      The Route it conflicts with.
+     */
+    public record Conflict(Kind kind, int resourceId, Route route, Route other) {
+        /**
+         * What two conflicting Routes share.
+         */
+        public enum Kind {
+            /**
+             * The same train is needed on both Routes at the same time.
+             */
+            TRAIN,
+            /**
+             * Both Routes need the same Platform at the same time.
+             */
+            PLATFORM
+        }
+
+        /**
+         * Convert the Conflict to a string.
+         *
+         * @return A string representation of the Conflict.
+         */
+        @Override
+        public String toString() {
+            return (this.kind == Kind.TRAIN ? "train " : "platform ") + this.resourceId
+                    + " is needed by route " + this.route.getId() + " and route " + this.other.getId();
+        }
+    }
+
+    /**
+     * Constructor for the ConflictChecker object.
+     *
+     * @param dwell How long a train occupies a Platform before departing and after arriving.
+     */
+    public ConflictChecker(Duration dwell) {
+        this.dwell = dwell.toMillis();
+    }
+
+    /**
+     * Add, replace or remove the busy times of a Route.
+     *
+     * @param event The change of the Route.
+     */
+    @Override
+    public synchronized void onRouteEvent(RouteEvent event) {
+        if (event.previous() != null) {
+            this.remove(event.previous());
+        }
+
+        if (event.current() != null) {
+            this.add(event.current());
+        }
+    }
+
+    /**
+     * Find the Routes a new Route would conflict with.
+     *
+     * @param candidate The new Route, its id is not used.
+     * @return The conflicts, empty if the Route fits into the timetable.
+     */
+    public synchronized List<Conflict> check(Route candidate) {
+        List<Conflict> conflicts = new ArrayList<>();
+
+        this.check(candidate, this.trains, this.platforms, conflicts);
+
+        return conflicts;
+    }
+
+    /**
+     * Find the conflicts of several new Routes, with the timetable and with each other.
+     *
+     * @param candidates The new Routes, their ids are not used.
+     * @return The conflicts, empty if all Routes fit into the timetable.
+     */
+    public synchronized List<Conflict> check(List<Route> candidates) {
+        List<Conflict> conflicts = new ArrayList<>();
+        Map<Integer, IntervalTree<Route>> batchTrains = new HashMap<>();
+        Map<Integer, IntervalTree<Route>> batchPlatforms = new HashMap<>();
+
+        for (int i = 0; i < candidates.size(); i++) {
+            Route candidate = candidates.get(i);
+
+            this.check(candidate, this.trains, this.platforms, conflicts);
+            this.check(candidate, batchTrains, batchPlatforms, conflicts);
+
+            // Keys below 0 can not clash with the ids of existing Routes.
+            this.add(candidate, -1 - i, batchTrains, batchPlatforms);
+        }
+
+        return conflicts;
+    }
+
+    /**
+     * Find all conflicts in the timetable.
+     * The trains and Platforms are checked in parallel, each by sweeping over its busy times in order.
+     *
+     * @return All conflicts, every pair of Routes is reported once per shared resource.
+     */
+    public List<Conflict> scan() {
+        List<Map.Entry<Integer, List<IntervalTree.Entry<Route>>>> trainTimes = new ArrayList<>();
+        List<Map.Entry<Integer, List<IntervalTree.Entry<Route>>>> platformTimes = new ArrayList<>();
+
+        synchronized (this) {
+            this.trains.forEach((nr, tree) -> trainTimes.add(Map.entry(nr, tree.entries())));
+            this.platforms.forEach((id, tree) -> platformTimes.add(Map.entry(id, tree.entries())));
+        }
+
+        List<Conflict> conflicts = new ArrayList<>();
+
+        conflicts.addAll(trainTimes.parallelStream()
+                .flatMap(entry -> sweep(Conflict.Kind.TRAIN, entry.getKey(), entry.getValue()).stream())
+                .toList());
+        conflicts.addAll(platformTimes.parallelStream()
+                .flatMap(entry -> sweep(Conflict.Kind.PLATFORM, entry.getKey(), entry.getValue()).stream())
+                .toList());
+
+        log.info("Scanned timetable, found " + conflicts.size() + " conflicts");
+
+        return conflicts;
+    }
+
+    /**
+     * Find the overlapping busy times of one train or Platform.
+     *
+     * @param kind       If the times belong to a train or a Platform.
+     * @param resourceId The train number or Platform-id.
+     * @param times      The busy times, ordered by start.
+     * @return The conflicts.
+     */
+    private static List<Conflict> sweep(Conflict.Kind kind, int resourceId, List<IntervalTree.Entry<Route>> times) {
+        List<Conflict> conflicts = new ArrayList<>();
+
+        for (int i = 0; i < times.size(); i++) {
+            IntervalTree.Entry<Route> current = times.get(i);
+
+            for (int j = i + 1; j < times.size() && times.get(j).start() < current.end(); j++) {
+                Route other = times.get(j).value();
+
+                if (kind == Conflict.Kind.PLATFORM && other.getTrainNr() == current.value().getTrainNr()) {
+                    continue;
+                }
+
+                conflicts.add(new Conflict(kind, resourceId, current.value(), other));
+            }
+        }
+
+        return conflicts;
+    }
+
+    /**
+     * Check a Route against the busy times in the given trees.
+     *
+     * @param candidate The Route.
+     * @param trains    The busy times of the trains.
+     * @param platforms The occupied times of the Platforms.
+     * @param conflicts Receives the conflicts.
+     */
+    private void check(
+            Route candidate, Map<Integer, IntervalTree<Route>> trains, Map<Integer, IntervalTree<Route>> platforms, List<Conflict> conflicts
+    ) {
+        long departure = candidate.getDeparture().getTime().getTime();
+        long arrival = candidate.getArrival().getTime().getTime();
+
+        IntervalTree<Route> trainTree = trains.get(candidate.getTrainNr());
+
+        if (trainTree != null) {
+            for (Route other : trainTree.overlapping(departure, Math.max(arrival, departure + 1))) {
+                conflicts.add(new Conflict(Conflict.Kind.TRAIN, candidate.getTrainNr(), candidate, other));
+            }
+        }
+
+        this.checkPlatform(candidate, candidate.getDeparture().getId(), departure - this.dwell, departure, platforms, conflicts);
+        this.checkPlatform(candidate, candidate.getArrival().getId(), arrival, arrival + this.dwell, platforms, conflicts);
+    }
+
+    /**
+     * Check if a Platform is occupied by another train.
+     *
+     * @param candidate  The Route that needs the Platform.
+     * @param platformId The Platform-id.
+     * @param start      When the Platform is needed.
+     * @param end        Until when the Platform is needed.
+     * @param platforms  The occupied times of the Platforms.
+     * @param conflicts  Receives the conflicts.
+     */
+    private void checkPlatform(
+            Route candidate, int platformId, long start, long end, Map<Integer, IntervalTree<Route>> platforms, List<Conflict> conflicts
+    ) {
+        IntervalTree<Route> tree = platforms.get(platformId);
+
+        if (tree == null) {
+            return;
+        }
+
+        for (Route other : tree.overlapping(start, end)) {
+            // A train may wait at the Platform it arrived at.
+            if (other.getTrainNr() != candidate.getTrainNr()) {
+                conflicts.add(new Conflict(Conflict.Kind.PLATFORM, platformId, candidate, other));
+            }
+        }
+    }
+
+    /**
+     * Add the busy times of a Route.
+     *
+     * @param route The Route.
+     */
+    private void add(Route route) {
+        this.add(route, route.getId(), this.trains, this.platforms);
+    }
+
+    /**
+     * Add the busy times of a Route to the given trees.
+     *
+     * @param route     The Route.
+     * @param key       Tells the Route apart from others starting at the same time.
+     * @param trains    The busy times of the trains.
+     * @param platforms The occupied times of the Platforms.
+     */
+    private void add(Route route, int key, Map<Integer, IntervalTree<Route>> trains, Map<Integer, IntervalTree<Route>> platforms) {
+        if (route.getDeparture().getTime() == null || route.getArrival().getTime() == null) {
+            return;
+        }
+
+        long departure = route.getDeparture().getTime().getTime();
+        long arrival = route.getArrival().getTime().getTime();
+
+        trains.computeIfAbsent(route.getTrainNr(), nr -> new IntervalTree<>())
+                .insert(departure, Math.max(arrival, departure + 1), key, route);
+        platforms.computeIfAbsent(route.getDeparture().getId(), id -> new IntervalTree<>())
+                .insert(departure - this.dwell, departure, key, route);
+        platforms.computeIfAbsent(route.getArrival().getId(), id -> new IntervalTree<>())
+                .insert(arrival, arrival + this.dwell, key, route);
+    }
+
+    /**
+     * Remove the busy times of a Route.
+     *
+     * @param route The Route as it was added.
+     */
+    private void remove(Route route) {
+        if (route.getDeparture().getTime() == null || route.getArrival().getTime() == null) {
+            return;
+        }
+
+        long departure = route.getDeparture().getTime().getTime();
+        long arrival = route.getArrival().getTime().getTime();
+
+        removeFrom(this.trains, route.getTrainNr(), departure, route.getId());
+        removeFrom(this.platforms, route.getDeparture().getId(), departure - this.dwell, route.getId());
+        removeFrom(this.platforms, route.getArrival().getId(), arrival, route.getId());
+    }
+
+    /**
+     * Remove an interval from one of the trees, dropping the tree once it is empty.
+     *
+     * @param trees The trees.
+     * @param id    The train number or Platform-id of the tree.
+     * @param start The start of the interval.
+     * @param key   The key of the interval.
+     */
+    private static void removeFrom(Map<Integer, IntervalTree<Route>> trees, int id, long start, int key) {
+        IntervalTree<Route> tree = trees.get(id);
+
+        if (tree != null && tree.remove(start, key) && tree.isEmpty()) {
+            trees.remove(id);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package quest.flo;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event for a thread waiting for a connection, because it broke and had to be reestablished.
+ * Includes the time spent waiting for another thread that was reconnecting already.
+ *
+ * @author Florian.WINDISCH
+ */
+@Name("quest.flo.ConnectionWait")
+@Label("Connection Wait")
+@Category({"Trains", "Database"})
+@Description("Waiting for a broken connection to be reestablished")
+@StackTrace(false)
+public class ConnectionWaitEvent extends Event {
+    // The url of the server.
+    @Label("Server")
+    public String server;
+
+    // If this thread reconnected, false if another thread did it meanwhile.
+    @Label("Reconnected")
+    public boolean reconnected;
+}
@@ -4,6 +4,10 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class that creates an object to abstract management of the database.
@@ -14,8 +18,71 @@ public class Database {
     // Logger for the Database-Class.
     private static final Logger log = LogManager.getLogger(Database.class);
 
-    // The Connection to the database.
-    private final Connection connection;
+    // The Connection to the database, all writes go to this primary server.
+    private final ManagedConnection connection;
+
+    // The read replicas, may be empty.
+    private final List<Replica> replicas = new ArrayList<>();
+
+    // Counter used to spread reads over the replicas.
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    // Limits retries of failed reads in relation to successful statements.
+    private final RetryBudget retryBudget = new RetryBudget(10);
+
+    // How often a single read is retried at most.
+    private volatile int maxRetries = 3;
+
+    // The maximum lag in seconds a replica may have to still be used for reads.
+    private volatile long maxReplicaLag = 5;
+
+    // How long reads stay on the primary after a write, in milliseconds.
+    private volatile long readYourWritesWindow = 2000;
+
+    // When the last write happened (System.nanoTime()).
+    private volatile long lastWrite;
+
+    // If there was a write at all.
+    private volatile boolean written = false;
+
+    // Logs statements that take longer than a threshold.
+    private final SlowQueryLog slowQueries = new SlowQueryLog();
+
+    // Records the executed statements to replay them later, null if they are not captured.
+    private volatile WorkloadCapture capture;
+
+    /**
+     * Interface to read the results of a query.
+     *
+     * @param <T> The type of the value read from the results.
+     */
+    @FunctionalInterface
+    public interface ResultReader<T> {
+        /**
+         * Read the results of a query.
+         * Might be called more than once if the query is retried, so it must not have side effects.
+         *
+         * @param results The results of the query.
+         * @return The value read from the results.
+         * @throws SQLException If reading the results fails.
+         */
+        T read(ResultSet results) throws SQLException;
+    }
+
+    /**
+     * Interface to handle the rows of a streamed query one at a time.
+     */
+    @FunctionalInterface
+    public interface RowHandler {
+        /**
+         * Handle the current row of the results.
+         * The results must not be moved, the row is only valid during this call.
+         *
+         * @param row The results, positioned on the current row.
+         * @throws SQLException If reading the row fails.
+         */
+        void handle(ResultSet row) throws SQLException;
+    }
 
     /**
      * Constructor for the Database object.
@@ -26,16 +93,34 @@ public class Database {
      * @throws SQLException If the connection to the dbms fails.
      */
     public Database(String url, String user, String password) throws SQLException {
+        this(url, List.of(), user, password);
+    }
+
+    /**
+     * Constructor for the Database object with read replicas.
+     * Writes always go to the primary, reads are spread over the replicas that are not lagging behind.
+     *
+     * @param url         The url of the primary, should not include the database.
+     * @param replicaUrls The urls of the read replicas, should not include the database.
+     * @param user        The user for accessing the databases.
+     * @param password    The password for accessing the databases.
+     * @throws SQLException If the connection to the primary or any replica fails.
+     */
+    public Database(String url, List<String> replicaUrls, String user, String password) throws SQLException {
         log.info("Connecting to Database with url: " + url);
 
         try {
-            this.connection = DriverManager.getConnection(url, user, password);
+            this.connection = new ManagedConnection(url, user, password);
         } catch (SQLException e) {
             String errorMessage = "Failed connecting to Database: " + e.getMessage();
 
             log.error(errorMessage);
 
-            throw new SQLException(errorMessage);
+            throw new SQLException(errorMessage, e.getSQLState(), e.getErrorCode(), e);
+        }
+
+        for (String replicaUrl : replicaUrls) {
+            this.replicas.add(new Replica(replicaUrl, user, password));
         }
     }
 
@@ -47,15 +132,36 @@ public class Database {
      */
     public void use(String name) throws SQLException {
         try {
-            Statement statement = this.connection.createStatement();
+            this.connection.use(name);
 
-            statement.execute("USE " + name);
+            for (Replica replica : this.replicas) {
+                replica.use(name);
+            }
         } catch (SQLException e) {
             String errorMessage = "Failed to use " + name + ": " + e.getMessage();
 
             log.error(errorMessage);
 
-            throw new SQLException(errorMessage);
+            throw new SQLException(errorMessage, e.getSQLState(), e.getErrorCode(), e);
+        }
+    }
+
+    /**
+     * Run a statement that sets up the session on the primary, for example a "SET SESSION".
+     * The statement is run again whenever the connection is reestablished.
+     *
+     * @param sql The statement.
+     * @throws SQLException If running the statement fails.
+     */
+    public void initSession(String sql) throws SQLException {
+        try {
+            this.connection.addSessionStatement(sql);
+        } catch (SQLException e) {
+            String errorMessage = "Failed setting up session with " + sql + ": " + e.getMessage();
+
+            log.error(errorMessage);
+
+            throw new SQLException(errorMessage, e.getSQLState(), e.getErrorCode(), e);
         }
     }
 
@@ -79,20 +185,20 @@ public class Database {
      * @throws SQLException If creating the database fails.
      */
     public void createDatabase(String name, boolean dropIfExists) throws SQLException {
-        try {
-            Statement statement = this.connection.createStatement();
-
+        try (Statement statement = this.connection.get().createStatement()) {
             if (dropIfExists) {
                 statement.execute("DROP DATABASE IF EXISTS " + name);
             }
 
             statement.execute("CREATE DATABASE IF NOT EXISTS " + name);
+
+            this.recordWrite();
         } catch (SQLException e) {
             String errorMessage = "Failed creating Database " + name + ": " + e.getMessage();
 
             log.error(errorMessage);
 
-            throw new SQLException(errorMessage);
+            throw new SQLException(errorMessage, e.getSQLState(), e.getErrorCode(), e);
         }
     }
 
@@ -120,32 +226,530 @@ public class Database {
     public void createTable(String name, String[] cols, boolean dropIfExists) throws SQLException {
         String colsString = "(" + String.join(",", cols) + ")";
 
-        try {
-            Statement statement = this.connection.createStatement();
-
+        try (Statement statement = this.connection.get().createStatement()) {
             if (dropIfExists) {
                 statement.execute("DROP TABLE IF EXISTS " + name);
             }
 
             statement.execute("CREATE TABLE IF NOT EXISTS " + name + " " + colsString);
+
+            this.recordWrite();
         } catch (SQLException e) {
             String errorMessage = "Failed creating Table " + name + ": " + e.getMessage();
 
             log.error(errorMessage);
 
-            throw new SQLException(errorMessage);
+            throw new SQLException(errorMessage, e.getSQLState(), e.getErrorCode(), e);
+        }
+    }
+
+    /**
+     * Run a read-only query and read its results.
+     * The query goes to a replica if one is usable. If it fails because the connection broke or
+     * the server asked for a retry, it is retried on a fresh connection as long as the retry budget allows.
+     *
+     * @param sql    An SQL query that can include parameter placeholders, must not write.
+     * @param reader Reads the value to return from the results.
+     * @param params The values for the parameter placeholders.
+     * @param <T>    The type of the value read from the results.
+     * @return The value read from the results.
+     * @throws SQLException If the query fails and can not be retried, with the SQLState of the original error.
+     */
+    public <T> T query(String sql, ResultReader<T> reader, Object... params) throws SQLException {
+        return this.query(sql, reader, true, params);
+    }
+
+    /**
+     * Run a read-only query on the primary and read its results.
+     * For reads that must see the latest writes. Retried like query().
+     *
+     * @param sql    An SQL query that can include parameter placeholders, must not write.
+     * @param reader Reads the value to return from the results.
+     * @param params The values for the parameter placeholders.
+     * @param <T>    The type of the value read from the results.
+     * @return The value read from the results.
+     * @throws SQLException If the query fails and can not be retried, with the SQLState of the original error.
+     */
+    public <T> T queryPrimary(String sql, ResultReader<T> reader, Object... params) throws SQLException {
+        return this.query(sql, reader, false, params);
+    }
+
+    /**
+     * Run a read-only query, retrying it on transient errors.
+     * The reader moves through the results itself, so the query is recorded without a row count.
+     *
+     * @param sql        An SQL query that can include parameter placeholders, must not write.
+     * @param reader     Reads the value to return from the results.
+     * @param useReplica If the query may go to a replica.
+     * @param params     The values for the parameter placeholders.
+     * @param <T>        The type of the value read from the results.
+     * @return The value read from the results.
+     * @throws SQLException If the query fails and can not be retried.
+     */
+    private <T> T query(String sql, ResultReader<T> reader, boolean useReplica, Object... params) throws SQLException {
+        for (int attempt = 0; ; attempt++) {
+            ManagedConnection target = useReplica ? this.getReadTarget() : this.connection;
+            long started = System.nanoTime();
+            StatementEvent event = new StatementEvent();
+
+            event.begin();
+
+            try (PreparedStatement statement = target.get().prepareStatement(sql)) {
+                bind(statement, params);
+
+                T value;
+
+                try (ResultSet results = statement.executeQuery()) {
+                    value = reader.read(results);
+                }
+
+                this.retryBudget.recordSuccess();
+                this.completed(event, target, sql, params, started, -1, false);
+
+                return value;
+            } catch (SQLException e) {
+                this.completed(event, target, sql, params, started, -1, true);
+
+                if (isConnectionError(e)) {
+                    target.invalidate();
+                }
+
+                if (!isTransient(e) || attempt >= this.maxRetries || !this.retryBudget.tryAcquire()) {
+                    throw e;
+                }
+
+                log.warn("Retrying query after transient error (" + e.getSQLState() + "): " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Run a read-only query and hand the rows to the handler as they arrive from the server.
+     * Uses a forward-only, read-only cursor that fetches fetchSize rows at a time,
+     * so the driver does not buffer the whole result before the first row is handled.
+     * While the rows are streamed no other statement should run on the same connection,
+     * the driver would have to buffer the rest of the result first.
+     * The query is only retried if it fails before the first row was handed to the handler.
+     *
+     * @param sql       An SQL query that can include parameter placeholders, must not write.
+     * @param fetchSize How many rows to fetch from the server at once.
+     * @param handler   Handles every row.
+     * @param params    The values for the parameter placeholders.
+     * @return The number of rows handled.
+     * @throws SQLException If the query or the handler fails.
+     */
+    public long stream(String sql, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+        for (int attempt = 0; ; attempt++) {
+            ManagedConnection target = this.getReadTarget();
+            long rows = 0;
+            long started = System.nanoTime();
+            StatementEvent event = new StatementEvent();
+
+            event.begin();
+
+            try (PreparedStatement statement = target.get().prepareStatement(
+                    sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(fetchSize);
+                bind(statement, params);
+
+                try (ResultSet results = statement.executeQuery()) {
+                    while (results.next()) {
+                        handler.handle(results);
+                        rows++;
+                    }
+                }
+
+                this.retryBudget.recordSuccess();
+                this.completed(event, target, sql, params, started, rows, false);
+
+                return rows;
+            } catch (SQLException e) {
+                this.completed(event, target, sql, params, started, rows, true);
+
+                if (isConnectionError(e)) {
+                    target.invalidate();
+                }
+
+                if (rows > 0 || !isTransient(e) || attempt >= this.maxRetries || !this.retryBudget.tryAcquire()) {
+                    throw e;
+                }
+
+                log.warn("Retrying streamed query after transient error (" + e.getSQLState() + "): " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Run a statement that writes on the primary.
+     * Writes are never retried, since it is unknown if a failed write was applied.
+     *
+     * @param sql    An SQL statement that can include parameter placeholders.
+     * @param params The values for the parameter placeholders.
+     * @return The number of changed rows.
+     * @throws SQLException If the statement fails.
+     */
+    public int update(String sql, Object... params) throws SQLException {
+        long started = System.nanoTime();
+        StatementEvent event = new StatementEvent();
+
+        event.begin();
+
+        try (PreparedStatement statement = this.connection.get().prepareStatement(sql)) {
+            bind(statement, params);
+
+            int changed = statement.executeUpdate();
+
+            this.recordWrite();
+            this.completed(event, this.connection, sql, params, started, changed, false);
+
+            return changed;
+        } catch (SQLException e) {
+            this.completed(event, this.connection, sql, params, started, -1, true);
+
+            if (isConnectionError(e)) {
+                this.connection.invalidate();
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Run an insert on the primary and return the generated key.
+     * Like update() the insert is never retried.
+     *
+     * @param sql    An SQL insert that can include parameter placeholders.
+     * @param params The values for the parameter placeholders.
+     * @return The generated key of the inserted row.
+     * @throws SQLException If the insert fails.
+     */
+    public int insert(String sql, Object... params) throws SQLException {
+        long started = System.nanoTime();
+        StatementEvent event = new StatementEvent();
+
+        event.begin();
+
+        try (PreparedStatement statement = this.connection.get().prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            bind(statement, params);
+
+            int inserted = statement.executeUpdate();
+
+            this.recordWrite();
+            this.completed(event, this.connection, sql, params, started, inserted, false);
+
+            try (ResultSet rs = statement.getGeneratedKeys()) {
+                rs.next();
+
+                return rs.getInt(1);
+            }
+        } catch (SQLException e) {
+            this.completed(event, this.connection, sql, params, started, -1, true);
+
+            if (isConnectionError(e)) {
+                this.connection.invalidate();
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Run a batch on a statement that was prepared outside of this Database, for example on an own Connection,
+     * and record it for Flight Recorder, in the slow query log and in the workload capture like the other statements.
+     * Writes are not recorded for reading your writes, call recordWrite() for that.
+     *
+     * @param statement The prepared statement, the generated keys can be read from it afterwards.
+     * @param sql       The SQL the statement was prepared with.
+     * @param batch     The values for the parameter placeholders, one array per execution.
+     * @return The number of changed rows, -1 if the driver does not know.
+     * @throws SQLException If the batch fails.
+     */
+    public long executeBatch(PreparedStatement statement, String sql, List<Object[]> batch) throws SQLException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        long started = System.nanoTime();
+        StatementEvent event = new StatementEvent();
+
+        event.begin();
+
+        try {
+            for (Object[] params : batch) {
+                bind(statement, params);
+                statement.addBatch();
+            }
+
+            long changed = 0;
+
+            for (int count : statement.executeBatch()) {
+                if (count < 0) {
+                    changed = -1;
+                    break;
+                }
+
+                changed += count;
+            }
+
+            this.completed(event, this.connection, sql, batch, started, changed, false);
+
+            return changed;
+        } catch (SQLException e) {
+            this.completed(event, this.connection, sql, batch, started, -1, true);
+
+            throw e;
+        }
+    }
+
+    /**
+     * Record a finished statement for Flight Recorder, in the slow query log and in the workload capture.
+     *
+     * @param event   The event begun before the statement was prepared.
+     * @param target  The connection the statement ran on.
+     * @param sql     The statement.
+     * @param params  The values of its parameter placeholders.
+     * @param started When the statement was started (System.nanoTime()).
+     * @param rows    The number of rows read or changed, negative if unknown.
+     * @param failed  If the statement failed.
+     */
+    private void completed(
+            StatementEvent event, ManagedConnection target, String sql, Object[] params, long started, long rows, boolean failed
+    ) {
+        this.completed(event, target, sql, Collections.singletonList(params), started, rows, failed);
+    }
+
+    /**
+     * Record a finished statement or batch for Flight Recorder, in the slow query log and in the workload capture.
+     * The slow query log shows and explains a batch with the values of its first execution.
+     * The workload capture records every execution of a batch on its own, with an equal share of the time.
+     *
+     * @param event   The event begun before the statement was prepared.
+     * @param target  The connection the statement ran on.
+     * @param sql     The statement.
+     * @param batch   The values of its parameter placeholders, one array per execution.
+     * @param started When the statement was started (System.nanoTime()).
+     * @param rows    The number of rows read or changed, negative if unknown.
+     * @param failed  If the statement failed.
+     */
+    private void completed(
+            StatementEvent event, ManagedConnection target, String sql, List<Object[]> batch, long started, long rows, boolean failed
+    ) {
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.sql = sql;
+            event.server = target.getUrl();
+            event.rows = rows;
+            event.batchSize = batch.size();
+            event.failed = failed;
+            event.commit();
+        }
+
+        long nanos = System.nanoTime() - started;
+        WorkloadCapture capture = this.capture;
+
+        this.slowQueries.record(target, sql, batch.get(0), nanos, rows, failed);
+
+        if (capture != null) {
+            for (Object[] params : batch) {
+                capture.record(sql, params, started, nanos / batch.size(), batch.size() == 1 ? rows : -1, failed);
+            }
         }
     }
 
+    /**
+     * Set the values for the parameter placeholders of a statement.
+     *
+     * @param statement The statement to set the values on.
+     * @param params    The values, in the order of the placeholders.
+     * @throws SQLException If setting a value fails.
+     */
+    private static void bind(PreparedStatement statement, Object... params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            statement.setObject(i + 1, params[i]);
+        }
+    }
+
+    /**
+     * Check if an error means the connection it happened on is unusable.
+     *
+     * @param e The error.
+     * @return True for connection errors (SQLState class 08) and errors the driver classified as recoverable.
+     */
+    public static boolean isConnectionError(SQLException e) {
+        String state = e.getSQLState();
+
+        return e instanceof SQLNonTransientConnectionException
+                || e instanceof SQLRecoverableException
+                || e instanceof SQLTransientConnectionException
+                || (state != null && state.startsWith("08"));
+    }
+
+    /**
+     * Check if a statement that failed with this error may succeed when it is tried again.
+     *
+     * @param e The error.
+     * @return True for connection errors, deadlocks/serialization failures (SQLState class 40) and transient errors.
+     */
+    public static boolean isTransient(SQLException e) {
+        String state = e.getSQLState();
+
+        return isConnectionError(e)
+                || e instanceof SQLTransientException
+                || (state != null && state.startsWith("40"));
+    }
+
     /**
      * Return a PreparedStatement so queries can be done.
+     * The statement is always prepared on the primary, use prepareReadStatement() for reads that may go to a replica.
+     * Statements prepared this way are not retried, prefer query() and update().
      *
      * @param statement An SQL statement that can include parameter placeholders.
      * @return The PreparedStatement with the pre-compiled SQL-Statement.
      * @throws SQLException If preparing the Statement fails.
      */
     public PreparedStatement prepareStatement(String statement) throws SQLException {
-        return this.connection.prepareStatement(statement);
+        return this.connection.get().prepareStatement(statement);
+    }
+
+    /**
+     * Return a PreparedStatement for a read-only query.
+     * The statement is prepared on a replica if one is usable, otherwise on the primary.
+     *
+     * @param statement An SQL statement that can include parameter placeholders, must not write.
+     * @return The PreparedStatement with the pre-compiled SQL-Statement.
+     * @throws SQLException If preparing the Statement fails.
+     */
+    public PreparedStatement prepareReadStatement(String statement) throws SQLException {
+        return this.getReadConnection().prepareStatement(statement);
+    }
+
+    /**
+     * Get the Connection to use for a read-only query.
+     * Replicas are used in turn, skipping the ones that lag behind too far.
+     * Right after a write the primary is used, so the written data can be read back.
+     *
+     * @return The Connection of a usable replica or of the primary.
+     * @throws SQLException If the chosen connection broke and reconnecting fails.
+     */
+    public Connection getReadConnection() throws SQLException {
+        return this.getReadTarget().get();
+    }
+
+    /**
+     * Choose where a read-only query goes.
+     *
+     * @return The connection of a usable replica or of the primary.
+     */
+    private ManagedConnection getReadTarget() {
+        if (this.replicas.isEmpty()) {
+            return this.connection;
+        }
+
+        if (this.written && System.nanoTime() - this.lastWrite < this.readYourWritesWindow * 1_000_000) {
+            return this.connection;
+        }
+
+        int start = Math.floorMod(this.nextReplica.getAndIncrement(), this.replicas.size());
+
+        for (int i = 0; i < this.replicas.size(); i++) {
+            Replica replica = this.replicas.get((start + i) % this.replicas.size());
+
+            if (replica.isUsable(this.maxReplicaLag)) {
+                return replica.getConnection();
+            }
+        }
+
+        log.warn("No usable Replica, reading from the primary");
+
+        return this.connection;
+    }
+
+    /**
+     * Remember that a write happened, so the following reads go to the primary for a while.
+     */
+    public void recordWrite() {
+        this.lastWrite = System.nanoTime();
+        this.written = true;
+    }
+
+    /**
+     * Set the maximum lag a replica may have to still be used for reads.
+     *
+     * @param seconds The maximum lag in seconds.
+     */
+    public void setMaxReplicaLag(long seconds) {
+        this.maxReplicaLag = seconds;
+    }
+
+    /**
+     * Set how long reads stay on the primary after a write.
+     *
+     * @param millis The duration in milliseconds, 0 to always read from the replicas.
+     */
+    public void setReadYourWritesWindow(long millis) {
+        this.readYourWritesWindow = millis;
+    }
+
+    /**
+     * Set how often a single read is retried at most.
+     * Retries are additionally limited by a budget shared by all reads.
+     *
+     * @param maxRetries The maximum amount of retries, 0 to never retry.
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Set how long a statement may take before it is logged as slow.
+     *
+     * @param millis The threshold in milliseconds, negative to log no statements.
+     */
+    public void setSlowQueryThreshold(long millis) {
+        this.slowQueries.setThreshold(millis);
+    }
+
+    /**
+     * Set if and how the plan of a slow statement is captured.
+     *
+     * @param explain  How the plan is captured.
+     * @param interval The minimum time between two captured plans, in milliseconds.
+     */
+    public void setSlowQueryExplain(SlowQueryLog.Explain explain, long interval) {
+        this.slowQueries.setExplain(explain, interval);
+    }
+
+    /**
+     * Set where the statements run through query(), queryPrimary(), stream(), update() and insert() are recorded.
+     * The same capture can be shared by several Databases, it is not closed by disconnect().
+     *
+     * @param capture The capture to record to, null to stop recording.
+     */
+    public void setWorkloadCapture(WorkloadCapture capture) {
+        this.capture = capture;
+    }
+
+    /**
+     * Open a separate Connection to the primary, with the same session set up, for example for a transaction.
+     * Statements on it are not retried, run batches through executeBatch() so they are still recorded.
+     *
+     * @param name Name of the database to use.
+     * @return The new Connection, the caller has to close it.
+     * @throws SQLException If connecting or switching the database fails.
+     */
+    public Connection openConnection(String name) throws SQLException {
+        Connection connection = this.connection.open();
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("USE " + name);
+        } catch (SQLException e) {
+            connection.close();
+
+            throw e;
+        }
+
+        return connection;
     }
 
     /**
@@ -153,9 +757,10 @@ public class Database {
      * For example: to use for methods directly on the Connection.
      *
      * @return The Connection to the Database.
+     * @throws SQLException If the connection broke and reconnecting fails.
      */
-    public Connection getConnection() {
-        return this.connection;
+    public Connection getConnection() throws SQLException {
+        return this.connection.get();
     }
 
     /**
@@ -167,13 +772,17 @@ public class Database {
         log.info("Disconnecting from Database");
 
         try {
+            for (Replica replica : this.replicas) {
+                replica.disconnect();
+            }
+
             this.connection.close();
         } catch (SQLException e) {
             String errorMessage = "Failed closing DB-Connection: " + e.getMessage();
 
             log.error(errorMessage);
 
-            throw new SQLException(errorMessage);
+            throw new SQLException(errorMessage, e.getSQLState(), e.getErrorCode(), e);
         }
     }
 }
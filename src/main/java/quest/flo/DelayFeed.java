@@ -0,0 +1,175 @@
+package quest.flo;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Class that takes in delays of Routes at a high rate and hands them to the train system in batches.
+ * Reports for the same Route within one window are coalesced, only the latest one is applied.
+ * Every window the collected delays are applied to the Routes in memory and then written with one batch per shard.
+ *
+ * @author Florian.WINDISCH
+ */
+public class DelayFeed {
+    // Logger for the DelayFeed-Class.
+    private static final Logger log = LogManager.getLogger(DelayFeed.class);
+
+    // The train system to apply the delays to.
+    private final Trains trains;
+
+    // The latest reported departure and arrival time by Route-id, in epoch milliseconds.
+    private final ConcurrentHashMap<Integer, long[]> pending = new ConcurrentHashMap<>();
+
+    // The number of reports received, including coalesced ones.
+    private final LongAdder reports = new LongAdder();
+
+    // How long delays are collected before they are applied, in milliseconds.
+    private volatile long window = 250;
+
+    // Applies the collected delays once per window, started with the first report.
+    private volatile ScheduledExecutorService flusher;
+
+    // If the feed was closed, no more reports are taken then.
+    private volatile boolean closed = false;
+
+    // Reports hold the read lock while they are collected, closing takes the write lock,
+    // so every report is either rejected or collected before the last flush.
+    private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    /**
+     * Constructor for the DelayFeed object.
+     *
+     * @param trains The train system to apply the delays to.
+     */
+    public DelayFeed(Trains trains) {
+        this.trains = trains;
+    }
+
+    /**
+     * Report the expected times of a delayed Route.
+     * Returns right away, the times are applied with the next window.
+     *
+     * @param routeId   The id of the Route.
+     * @param departure The expected departure time, including the delay.
+     * @param arrival   The expected arrival time, including the delay.
+     * @throws IllegalStateException If the feed was closed.
+     */
+    public void report(int routeId, Timestamp departure, Timestamp arrival) {
+        this.closeLock.readLock().lock();
+
+        try {
+            if (this.closed) {
+                throw new IllegalStateException("Delay feed is closed");
+            }
+
+            this.start();
+
+            this.pending.put(routeId, new long[]{departure.getTime(), arrival.getTime()});
+            this.reports.increment();
+        } finally {
+            this.closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Set how long delays are collected before they are applied.
+     * The window is fixed with the first report, which starts applying delays in the background.
+     *
+     * @param window The window, longer windows coalesce more reports.
+     * @throws IllegalStateException If a report was made already or the feed was closed.
+     */
+    public synchronized void setWindow(Duration window) {
+        if (this.flusher != null || this.closed) {
+            throw new IllegalStateException("Delay window can only be set before the first report");
+        }
+
+        this.window = window.toMillis();
+    }
+
+    /**
+     * Apply all collected delays now.
+     *
+     * @throws SQLException If writing the delays fails, they are then kept to be written with the next window.
+     */
+    public synchronized void flush() throws SQLException {
+        if (this.pending.isEmpty()) {
+            return;
+        }
+
+        Map<Integer, long[]> batch = new HashMap<>();
+
+        for (Map.Entry<Integer, long[]> delay : this.pending.entrySet()) {
+            // If a newer report replaced this one meanwhile, it is left for the next window.
+            if (this.pending.remove(delay.getKey(), delay.getValue())) {
+                batch.put(delay.getKey(), delay.getValue());
+            }
+        }
+
+        try {
+            this.trains.applyTimes(batch);
+        } catch (SQLException e) {
+            // Newer reports for the same Routes win over the ones that failed.
+            batch.forEach(this.pending::putIfAbsent);
+
+            throw e;
+        }
+
+        log.debug("Applied " + batch.size() + " delays, " + this.reports.sumThenReset() + " reports");
+    }
+
+    /**
+     * Stop applying delays in the background, applying the ones still collected.
+     * Later reports are rejected.
+     *
+     * @throws SQLException If writing the last delays fails.
+     */
+    public void close() throws SQLException {
+        this.closeLock.writeLock().lock();
+
+        try {
+            synchronized (this) {
+                this.closed = true;
+
+                if (this.flusher != null) {
+                    this.flusher.shutdown();
+                    this.flusher = null;
+                }
+            }
+        } finally {
+            this.closeLock.writeLock().unlock();
+        }
+
+        this.flush();
+    }
+
+    /**
+     * Start applying delays in the background if that is not running yet.
+     */
+    private void start() {
+        if (this.flusher != null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (this.flusher == null && !this.closed) {
+                this.flusher = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("delay-feed").daemon().factory());
+                this.flusher.scheduleWithFixedDelay(() -> {
+                    try {
+                        this.flush();
+                    } catch (SQLException e) {
+                        log.error("Failed writing delays: " + e.getMessage());
+                    }
+                }, this.window, this.window, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package quest.flo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class that stores time intervals and finds the ones overlapping a given interval in O(log n + k).
+ * It is a balanced (AVL) search tree ordered by start, where every node also knows the latest end in its subtree.
+ * Intervals are half-open, an interval ending at the time another one starts does not overlap it.
+ *
+ * @param <T> The type of the values stored with the intervals.
+ * @author Florian.WINDISCH
+ */
+public class IntervalTree<T> {
+    // The root of the tree, null if it is empty.
+    private Node<T> root;
+
+    // The number of intervals in the tree.
+    private int size = 0;
+
+    /**
+     * A node of the tree, holding one interval.
+     *
+     * @param <T> The type of the value.
+     */
+    private static final class Node<T> {
+        // The start of the interval.
+        final long start;
+
+        // The end of the interval, exclusive.
+        final long end;
+
+        // Tells intervals with the same start apart.
+        final int key;
+
+        // The value stored with the interval.
+        final T value;
+
+        // The latest end of all intervals in this subtree.
+        long maxEnd;
+
+        // The height of this subtree.
+        int height = 1;
+
+        // The subtree of intervals ordered before this one.
+        Node<T> left;
+
+        // The subtree of intervals ordered after this one.
+        Node<T> right;
+
+        /**
+         * Constructor for the Node object.
+         *
+         * @param start The start of the interval.
+         * @param end   The end of the interval.
+         * @param key   Tells intervals with the same start apart.
+         * @param value The value stored with the interval.
+         */
+        Node(long start, long end, int key, T value) {
+            this.start = start;
+            this.end = end;
+            this.key = key;
+            this.value = value;
+            this.maxEnd = end;
+        }
+    }
+
+    /**
+     * An interval and its value.
+     *
+     * @param start The start of the interval.
+     * @param end   The end of the interval, exclusive.
+     * @param value The value stored with the interval.
+     * @param <T>   The type of the value.
+     */
+    public record Entry<T>(long start, long end, T value) {
+    }
+
+    /**
+     * Add an interval.
+     *
+     * @param start The start of the interval.
+     * @param end   The end of the interval, exclusive.
+     * @param key   Tells intervals with the same start apart, needed to remove the interval again.
+     * @param value The value stored with the interval.
+     */
+    public void insert(long start, long end, int key, T value) {
+        this.root = this.insert(this.root, new Node<>(start, end, key, value));
+        this.size++;
+    }
+
+    /**
+     * Remove an interval.
+     *
+     * @param start The start of the interval.
+     * @param key   The key the interval was added with.
+     * @return True if the interval was found and removed.
+     */
+    public boolean remove(long start, int key) {
+        int before = this.size;
+
+        this.root = this.remove(this.root, start, key);
+
+        return this.size < before;
+    }
+
+    /**
+     * Find the intervals overlapping an interval.
+     *
+     * @param start The start of the interval.
+     * @param end   The end of the interval, exclusive.
+     * @return The values of the overlapping intervals, ordered by start.
+     */
+    public List<T> overlapping(long start, long end) {
+        List<T> found = new ArrayList<>();
+
+        this.overlapping(this.root, start, end, found);
+
+        return found;
+    }
+
+    /**
+     * Get all intervals.
+     *
+     * @return All intervals, ordered by start.
+     */
+    public List<Entry<T>> entries() {
+        List<Entry<T>> entries = new ArrayList<>(this.size);
+
+        this.collect(this.root, entries);
+
+        return entries;
+    }
+
+    /**
+     * Get the number of intervals.
+     *
+     * @return The number of intervals.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Check if there are no intervals.
+     *
+     * @return True if the tree is empty.
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Collect the overlapping intervals of a subtree.
+     *
+     * @param node  The root of the subtree.
+     * @param start The start of the interval to overlap.
+     * @param end   The end of the interval to overlap.
+     * @param found Receives the values of the overlapping intervals.
+     */
+    private void overlapping(Node<T> node, long start, long end, List<T> found) {
+        // Nothing in this subtree ends after the start.
+        if (node == null || node.maxEnd <= start) {
+            return;
+        }
+
+        this.overlapping(node.left, start, end, found);
+
+        // Everything to the right starts even later.
+        if (node.start >= end) {
+            return;
+        }
+
+        if (node.end > start) {
+            found.add(node.value);
+        }
+
+        this.overlapping(node.right, start, end, found);
+    }
+
+    /**
+     * Collect all intervals of a subtree in order.
+     *
+     * @param node    The root of the subtree.
+     * @param entries Receives the intervals.
+     */
+    private void collect(Node<T> node, List<Entry<T>> entries) {
+        if (node == null) {
+            return;
+        }
+
+        this.collect(node.left, entries);
+        entries.add(new Entry<>(node.start, node.end, node.value));
+        this.collect(node.right, entries);
+    }
+
+    /**
+     * Insert a node into a subtree.
+     *
+     * @param node  The root of the subtree.
+     * @param added The node to insert.
+     * @return The new root of the subtree.
+     */
+    private Node<T> insert(Node<T> node, Node<T> added) {
+        if (node == null) {
+            return added;
+        }
+
+        if (compare(added.start, added.key, node) < 0) {
+            node.left = this.insert(node.left, added);
+        } else {
+            node.right = this.insert(node.right, added);
+        }
+
+        return balance(node);
+    }
+
+    /**
+     * Remove a node from a subtree.
+     *
+     * @param node  The root of the subtree.
+     * @param start The start of the interval to remove.
+     * @param key   The key of the interval to remove.
+     * @return The new root of the subtree.
+     */
+    private Node<T> remove(Node<T> node, long start, int key) {
+        if (node == null) {
+            return null;
+        }
+
+        int comparison = compare(start, key, node);
+
+        if (comparison < 0) {
+            node.left = this.remove(node.left, start, key);
+        } else if (comparison > 0) {
+            node.right = this.remove(node.right, start, key);
+        } else {
+            this.size--;
+
+            if (node.left == null) {
+                return node.right;
+            }
+
+            if (node.right == null) {
+                return node.left;
+            }
+
+            // Replace the node with the first one of its right subtree.
+            Node<T> successor = node.right;
+
+            while (successor.left != null) {
+                successor = successor.left;
+            }
+
+            successor.right = removeFirst(node.right);
+            successor.left = node.left;
+
+            return balance(successor);
+        }
+
+        return balance(node);
+    }
+
+    /**
+     * Remove the first node of a subtree.
+     *
+     * @param node The root of the subtree.
+     * @return The new root of the subtree.
+     */
+    private static <T> Node<T> removeFirst(Node<T> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+
+        node.left = removeFirst(node.left);
+
+        return balance(node);
+    }
+
+    /**
+     * Compare an interval with the interval of a node.
+     *
+     * @param start The start of the interval.
+     * @param key   The key of the interval.
+     * @param node  The node.
+     * @return Negative if the interval is ordered before the node, 0 if it is the same, positive otherwise.
+     */
+    private static int compare(long start, int key, Node<?> node) {
+        int comparison = Long.compare(start, node.start);
+
+        return comparison != 0 ? comparison : Integer.compare(key, node.key);
+    }
+
+    /**
+     * Restore the height, latest end and balance of a node whose subtrees changed.
+     *
+     * @param node The node.
+     * @return The new root of the subtree.
+     */
+    private static <T> Node<T> balance(Node<T> node) {
+        update(node);
+
+        int balance = height(node.left) - height(node.right);
+
+        if (balance > 1) {
+            if (height(node.left.left) < height(node.left.right)) {
+                node.left = rotateLeft(node.left);
+            }
+
+            return rotateRight(node);
+        }
+
+        if (balance < -1) {
+            if (height(node.right.right) < height(node.right.left)) {
+                node.right = rotateRight(node.right);
+            }
+
+            return rotateLeft(node);
+        }
+
+        return node;
+    }
+
+    /**
+     * Rotate a subtree to the left.
+     *
+     * @param node The root of the subtree.
+     * @return The new root of the subtree.
+     */
+    private static <T> Node<T> rotateLeft(Node<T> node) {
+        Node<T> newRoot = node.right;
+
+        node.right = newRoot.left;
+        newRoot.left = node;
+
+        update(node);
+        update(newRoot);
+
+        return newRoot;
+    }
+
+    /**
+     * Rotate a subtree to the right.
+     *
+     * @param node The root of the subtree.
+     * @return The new root of the subtree.
+     */
+    private static <T> Node<T> rotateRight(Node<T> node) {
+        Node<T> newRoot = node.left;
+
+        node.left = newRoot.right;
+        newRoot.right = node;
+
+        update(node);
+        update(newRoot);
+
+        return newRoot;
+    }
+
+    /**
+     * Recalculate the height and latest end of a node from its subtrees.
+     *
+     * @param node The node.
+     */
+    private static void update(Node<?> node) {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+        node.maxEnd = node.end;
+
+        if (node.left != null) {
+            node.maxEnd = Math.max(node.maxEnd, node.left.maxEnd);
+        }
+
+        if (node.right != null) {
+            node.maxEnd = Math.max(node.maxEnd, node.right.maxEnd);
+        }
+    }
+
+    /**
+     * Get the height of a subtree.
+     *
+     * @param node The root of the subtree.
+     * @return The height, 0 for an empty subtree.
+     */
+    private static int height(Node<?> node) {
+        return node == null ? 0 : node.height;
+    }
+}
@@ -0,0 +1,401 @@
+package quest.flo;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Class that plans journeys over the Routes of a train system, including changes between trains.
+ * Uses the Connection Scan Algorithm: every Route is a connection between two stations, all connections are
+ * kept in parallel arrays sorted by departure time and a query scans them once from the requested departure time.
+ * The planner listens to changes of the Routes and merges them into the arrays before the next query,
+ * so it never has to reload or fully re-sort the timetable.
+ *
+ * @author Florian.WINDISCH
+ */
+public final class JourneyPlanner implements RouteListener {
+    // Logger for the JourneyPlanner-Class.
+    private static final Logger log = LogManager.getLogger(JourneyPlanner.class);
+
+    // Marks unreachable stations.
+    private static final long UNREACHABLE = Long.MAX_VALUE;
+
+    // The time needed to change trains at stations without an own transfer time, in milliseconds.
+    private volatile long defaultTransferTime = Duration.ofMinutes(5).toMillis();
+
+    // Transfer times of single stations by station id, in milliseconds.
+    private final Map<Integer, Long> transferTimes = new HashMap<>();
+
+    // The connections used by queries.
+    private volatile Timetable timetable = new Timetable(0, new Route[0], Map.of(), new long[0]);
+
+    // Routes that were added or changed since the timetable was built, by id.
+    private final Map<Integer, Route> pendingAdded = new HashMap<>();
+
+    // Ids of Routes that were removed or changed since the timetable was built.
+    private final Set<Integer> pendingRemoved = new HashSet<>();
+
+    /**
+     * A journey from one station to another, made of one or more Routes.
+     *
+     * @param legs The Routes to take, in order.
+     */
+    public record Journey(List<Route> legs) {
+        /**
+         * Get the departure time at the first station.
+         *
+         * @return The departure time.
+         */
+        public Timestamp departure() {
+            return this.legs.get(0).getDeparture().getTime();
+        }
+
+        /**
+         * Get the arrival time at the last station.
+         *
+         * @return The arrival time.
+         */
+        public Timestamp arrival() {
+            return this.legs.get(this.legs.size() - 1).getArrival().getTime();
+        }
+
+        /**
+         * Get the number of times the train has to be changed.
+         *
+         * @return The number of changes.
+         */
+        public int transfers() {
+            return this.legs.size() - 1;
+        }
+    }
+
+    /**
+     * The connections, stored as parallel arrays sorted by departure time.
+     * Never changed after it was built, so queries can run while a new one is built.
+     */
+    private static final class Timetable {
+        // The number of connections.
+        final int size;
+
+        // The Routes of the connections.
+        final Route[] routes;
+
+        // Dense index of the departure station of every connection.
+        final int[] departureStops;
+
+        // Dense index of the arrival station of every connection.
+        final int[] arrivalStops;
+
+        // The train number of every connection.
+        final int[] trains;
+
+        // The departure time of every connection, in epoch milliseconds.
+        final long[] departureTimes;
+
+        // The arrival time of every connection, in epoch milliseconds.
+        final long[] arrivalTimes;
+
+        // Maps station ids to their dense index.
+        final Map<Integer, Integer> stops;
+
+        // The transfer time of every station by dense index, in milliseconds.
+        final long[] transferTimes;
+
+        /**
+         * Constructor for the Timetable object.
+         *
+         * @param size          The number of connections.
+         * @param routes        The Routes, sorted by departure time. Only the first size entries are used.
+         * @param stops         Maps station ids to their dense index.
+         * @param transferTimes The transfer times by dense index.
+         */
+        Timetable(int size, Route[] routes, Map<Integer, Integer> stops, long[] transferTimes) {
+            this.size = size;
+            this.routes = routes;
+            this.stops = stops;
+            this.transferTimes = transferTimes;
+            this.departureStops = new int[size];
+            this.arrivalStops = new int[size];
+            this.trains = new int[size];
+            this.departureTimes = new long[size];
+            this.arrivalTimes = new long[size];
+
+            for (int i = 0; i < size; i++) {
+                Route route = routes[i];
+
+                this.departureStops[i] = stops.get(route.getDeparture().getStationId());
+                this.arrivalStops[i] = stops.get(route.getArrival().getStationId());
+                this.trains[i] = route.getTrainNr();
+                this.departureTimes[i] = route.getDeparture().getTime().getTime();
+                this.arrivalTimes[i] = route.getArrival().getTime().getTime();
+            }
+        }
+
+        /**
+         * Find the first connection departing at or after a time.
+         *
+         * @param time The time in epoch milliseconds.
+         * @return The index of the connection, size if there is none.
+         */
+        int firstDepartingAt(long time) {
+            int low = 0;
+            int high = this.size;
+
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+
+                if (this.departureTimes[middle] < time) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            return low;
+        }
+    }
+
+    /**
+     * Constructor for the JourneyPlanner object.
+     * Plans over the Routes the train system currently knows and follows all changes of them.
+     *
+     * @param trains The train system to plan journeys in.
+     */
+    public JourneyPlanner(Trains trains) {
+        // Listen first, so no change is missed between taking the Routes and listening.
+        trains.addRouteListener(this);
+
+        synchronized (this) {
+            for (Route route : trains.getRoutes().values()) {
+                // Changes received meanwhile are newer than the Routes taken, they are kept.
+                if (!this.pendingAdded.containsKey(route.getId()) && !this.pendingRemoved.contains(route.getId())) {
+                    this.pendingAdded.put(route.getId(), route);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remember a change of a Route, it is merged into the timetable before the next query.
+     *
+     * @param event The change.
+     */
+    @Override
+    public synchronized void onRouteEvent(RouteEvent event) {
+        if (event.previous() != null) {
+            this.pendingAdded.remove(event.routeId());
+            this.pendingRemoved.add(event.routeId());
+        }
+
+        if (event.current() != null) {
+            this.pendingAdded.put(event.routeId(), event.current());
+        }
+    }
+
+    /**
+     * Set the time needed to change trains at a station.
+     *
+     * @param stationId The id of the station.
+     * @param time      The transfer time.
+     */
+    public synchronized void setTransferTime(int stationId, Duration time) {
+        this.transferTimes.put(stationId, time.toMillis());
+        this.timetable = this.merge(this.timetable, List.of(), Set.of());
+    }
+
+    /**
+     * Set the time needed to change trains at stations without an own transfer time.
+     *
+     * @param time The transfer time.
+     */
+    public synchronized void setDefaultTransferTime(Duration time) {
+        this.defaultTransferTime = time.toMillis();
+        this.timetable = this.merge(this.timetable, List.of(), Set.of());
+    }
+
+    /**
+     * Find the journey that arrives the earliest.
+     * At the first station no transfer time is needed, staying on the same train needs none either.
+     *
+     * @param fromStationId The id of the station to start at.
+     * @param toStationId   The id of the station to go to.
+     * @param departAfter   The earliest time to leave.
+     * @return The journey, or null if the station can not be reached.
+     */
+    public Journey earliestArrival(int fromStationId, int toStationId, Timestamp departAfter) {
+        Timetable current = this.current();
+        Integer from = current.stops.get(fromStationId);
+        Integer to = current.stops.get(toStationId);
+
+        if (from == null || to == null || from.equals(to)) {
+            return null;
+        }
+
+        int stopCount = current.transferTimes.length;
+        long[] arrival = new long[stopCount];
+        long[] ready = new long[stopCount];
+        int[] train = new int[stopCount];
+        int[] inConnection = new int[stopCount];
+
+        Arrays.fill(arrival, UNREACHABLE);
+        Arrays.fill(ready, UNREACHABLE);
+        Arrays.fill(inConnection, -1);
+
+        long start = departAfter.getTime();
+
+        arrival[from] = start;
+        ready[from] = start;
+        train[from] = -1;
+
+        for (int i = current.firstDepartingAt(start); i < current.size; i++) {
+            long departure = current.departureTimes[i];
+
+            // Connections are sorted by departure, none of the following can arrive earlier.
+            if (departure >= arrival[to]) {
+                break;
+            }
+
+            int stop = current.departureStops[i];
+            boolean boardable = ready[stop] <= departure
+                    || (train[stop] == current.trains[i] && arrival[stop] <= departure);
+
+            if (!boardable) {
+                continue;
+            }
+
+            int target = current.arrivalStops[i];
+            long arrivalTime = current.arrivalTimes[i];
+
+            if (arrivalTime < arrival[target]) {
+                arrival[target] = arrivalTime;
+                ready[target] = arrivalTime + current.transferTimes[target];
+                train[target] = current.trains[i];
+                inConnection[target] = i;
+            }
+        }
+
+        if (inConnection[to] < 0) {
+            return null;
+        }
+
+        LinkedList<Route> legs = new LinkedList<>();
+
+        for (int stop = to; stop != from; ) {
+            int connection = inConnection[stop];
+
+            legs.addFirst(current.routes[connection]);
+            stop = current.departureStops[connection];
+        }
+
+        return new Journey(List.copyOf(legs));
+    }
+
+    /**
+     * Get the timetable, merging pending changes into it first.
+     *
+     * @return The current timetable.
+     */
+    private Timetable current() {
+        Timetable current = this.timetable;
+
+        synchronized (this) {
+            if (this.pendingAdded.isEmpty() && this.pendingRemoved.isEmpty()) {
+                return this.timetable;
+            }
+
+            List<Route> added = new ArrayList<>(this.pendingAdded.values());
+            Set<Integer> removed = new HashSet<>(this.pendingRemoved);
+
+            this.pendingAdded.clear();
+            this.pendingRemoved.clear();
+
+            current = this.merge(this.timetable, added, removed);
+            this.timetable = current;
+        }
+
+        return current;
+    }
+
+    /**
+     * Build a new timetable by dropping removed connections and merging added ones in departure order.
+     * Only the added connections are sorted, the existing ones are already in order.
+     *
+     * @param old     The timetable to start from.
+     * @param added   The Routes to add.
+     * @param removed The ids of the Routes to drop.
+     * @return The new timetable.
+     */
+    private Timetable merge(Timetable old, List<Route> added, Set<Integer> removed) {
+        List<Route> additions = new ArrayList<>(added.size());
+
+        for (Route route : added) {
+            if (isConnection(route)) {
+                additions.add(route);
+            }
+        }
+
+        additions.sort(Comparator.comparingLong(route -> route.getDeparture().getTime().getTime()));
+
+        Route[] routes = new Route[old.size + additions.size()];
+        int size = 0;
+        int next = 0;
+
+        for (int i = 0; i < old.size; i++) {
+            Route route = old.routes[i];
+
+            if (removed.contains(route.getId())) {
+                continue;
+            }
+
+            while (next < additions.size() && additions.get(next).getDeparture().getTime().getTime() < old.departureTimes[i]) {
+                routes[size++] = additions.get(next++);
+            }
+
+            routes[size++] = route;
+        }
+
+        while (next < additions.size()) {
+            routes[size++] = additions.get(next++);
+        }
+
+        Map<Integer, Integer> stops = new HashMap<>();
+        List<Integer> stationIds = new ArrayList<>();
+
+        for (int i = 0; i < size; i++) {
+            for (int stationId : new int[]{routes[i].getDeparture().getStationId(), routes[i].getArrival().getStationId()}) {
+                if (!stops.containsKey(stationId)) {
+                    stops.put(stationId, stationIds.size());
+                    stationIds.add(stationId);
+                }
+            }
+        }
+
+        long[] transfers = new long[stationIds.size()];
+
+        for (int i = 0; i < transfers.length; i++) {
+            transfers[i] = this.transferTimes.getOrDefault(stationIds.get(i), this.defaultTransferTime);
+        }
+
+        log.debug("Rebuilt journey planner timetable: " + size + " connections, " + transfers.length + " stations");
+
+        return new Timetable(size, routes, stops, transfers);
+    }
+
+    /**
+     * Check if a Route can be used as a connection.
+     *
+     * @param route The Route.
+     * @return True if both Platforms and times are known and the train does not arrive before it departs.
+     */
+    private static boolean isConnection(Route route) {
+        Platform departure = route.getDeparture();
+        Platform arrival = route.getArrival();
+
+        return departure.getTime() != null && arrival.getTime() != null
+                && departure.getStation() != null && arrival.getStation() != null
+                && !arrival.getTime().before(departure.getTime());
+    }
+}
@@ -0,0 +1,239 @@
+package quest.flo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Class that reads a flat JSON object, the counterpart of the JsonWriter for request bodies.
+ * Members can be strings, numbers, booleans or null; nested objects and arrays are rejected.
+ *
+ * @author Florian.WINDISCH
+ */
+public class JsonReader {
+    // The JSON document.
+    private final String content;
+
+    // The index of the next character to read.
+    private int pos = 0;
+
+    /**
+     * Constructor for the JsonReader object.
+     *
+     * @param content The JSON document.
+     */
+    private JsonReader(String content) {
+        this.content = content;
+    }
+
+    /**
+     * Read a flat JSON object.
+     *
+     * @param content The JSON document, a single object.
+     * @return The members of the object, all values as strings; members that are null are left out.
+     * @throws IllegalArgumentException If the document is not a flat JSON object.
+     */
+    public static Map<String, String> readObject(String content) {
+        JsonReader reader = new JsonReader(content);
+        Map<String, String> fields = reader.object();
+
+        reader.skipWhitespace();
+
+        if (reader.pos < content.length()) {
+            throw reader.malformed("Unexpected content after the object");
+        }
+
+        return fields;
+    }
+
+    /**
+     * Read an object and its members.
+     *
+     * @return The members, without those that are null.
+     */
+    private Map<String, String> object() {
+        Map<String, String> fields = new HashMap<>();
+
+        this.expect('{');
+        this.skipWhitespace();
+
+        if (this.peek() == '}') {
+            this.pos++;
+
+            return fields;
+        }
+
+        while (true) {
+            this.skipWhitespace();
+            String name = this.string();
+
+            this.skipWhitespace();
+            this.expect(':');
+            this.skipWhitespace();
+
+            if (fields.containsKey(name)) {
+                throw this.malformed("Duplicate member " + name);
+            }
+
+            fields.put(name, this.value());
+            this.skipWhitespace();
+
+            char next = this.next();
+
+            if (next == '}') {
+                fields.values().removeIf(Objects::isNull);
+
+                return fields;
+            }
+
+            if (next != ',') {
+                throw this.malformed("Expected , or }");
+            }
+        }
+    }
+
+    /**
+     * Read a member value.
+     *
+     * @return The value as a string, null for a JSON null.
+     */
+    private String value() {
+        char c = this.peek();
+
+        if (c == '"') {
+            return this.string();
+        }
+
+        if (c == '{' || c == '[') {
+            throw this.malformed("Nested objects and arrays are not supported");
+        }
+
+        int start = this.pos;
+
+        while (this.pos < this.content.length() && ",}".indexOf(this.content.charAt(this.pos)) < 0
+                && !Character.isWhitespace(this.content.charAt(this.pos))) {
+            this.pos++;
+        }
+
+        String literal = this.content.substring(start, this.pos);
+
+        if (literal.equals("null")) {
+            return null;
+        }
+
+        if (literal.equals("true") || literal.equals("false") || literal.matches("-?(0|[1-9]\\d*)(\\.\\d+)?([eE][+-]?\\d+)?")) {
+            return literal;
+        }
+
+        throw this.malformed("Invalid value " + literal);
+    }
+
+    /**
+     * Read a string, resolving its escapes.
+     *
+     * @return The string.
+     */
+    private String string() {
+        StringBuilder value = new StringBuilder();
+
+        this.expect('"');
+
+        while (true) {
+            char c = this.next();
+
+            if (c == '"') {
+                return value.toString();
+            }
+
+            if (c < 0x20) {
+                throw this.malformed("Unescaped control character in string");
+            }
+
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+
+            char escaped = this.next();
+
+            switch (escaped) {
+                case '"', '\\', '/' -> value.append(escaped);
+                case 'b' -> value.append('\b');
+                case 'f' -> value.append('\f');
+                case 'n' -> value.append('\n');
+                case 'r' -> value.append('\r');
+                case 't' -> value.append('\t');
+                case 'u' -> {
+                    if (this.pos + 4 > this.content.length()) {
+                        throw this.malformed("Incomplete unicode escape");
+                    }
+
+                    try {
+                        value.append((char) Integer.parseInt(this.content.substring(this.pos, this.pos + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw this.malformed("Invalid unicode escape");
+                    }
+
+                    this.pos += 4;
+                }
+                default -> throw this.malformed("Invalid escape \\" + escaped);
+            }
+        }
+    }
+
+    /**
+     * Skip whitespace between tokens.
+     */
+    private void skipWhitespace() {
+        while (this.pos < this.content.length() && Character.isWhitespace(this.content.charAt(this.pos))) {
+            this.pos++;
+        }
+    }
+
+    /**
+     * Read a character that must be next.
+     *
+     * @param expected The character.
+     */
+    private void expect(char expected) {
+        if (this.next() != expected) {
+            throw this.malformed("Expected " + expected);
+        }
+    }
+
+    /**
+     * Get the next character without reading it.
+     *
+     * @return The character.
+     */
+    private char peek() {
+        if (this.pos >= this.content.length()) {
+            throw this.malformed("Unexpected end");
+        }
+
+        return this.content.charAt(this.pos);
+    }
+
+    /**
+     * Read the next character.
+     *
+     * @return The character.
+     */
+    private char next() {
+        char c = this.peek();
+
+        this.pos++;
+
+        return c;
+    }
+
+    /**
+     * Create the exception for malformed JSON at the current position.
+     *
+     * @param message What is wrong.
+     * @return The exception.
+     */
+    private IllegalArgumentException malformed(String message) {
+        return new IllegalArgumentException("Malformed JSON at " + this.pos + ": " + message);
+    }
+}
@@ -0,0 +1,240 @@
+package quest.flo;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Class that writes JSON directly to a Writer, without building the document in memory first.
+ *
+ * @author Florian.WINDISCH
+ */
+public class JsonWriter {
+    // The maximum nesting depth of objects and arrays.
+    private static final int MAX_DEPTH = 32;
+
+    // Where the JSON is written to.
+    private final Writer out;
+
+    // For every open object/array: if a value was already written, so the next one needs a comma.
+    private final boolean[] hasValue = new boolean[MAX_DEPTH];
+
+    // The current nesting depth.
+    private int depth = 0;
+
+    // If a name was just written, so the next value must not be preceded by a comma.
+    private boolean afterName = false;
+
+    /**
+     * Constructor for the JsonWriter object.
+     *
+     * @param out Where the JSON is written to.
+     */
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Start an object.
+     *
+     * @return This writer.
+     * @throws IOException If writing fails.
+     */
+    public JsonWriter beginObject() throws IOException {
+        return this.open('{');
+    }
+
+    /**
+     * End the current object.
+     *
+     * @return This writer.
+     * @throws IOException If writing fails.
+     */
+    public JsonWriter endObject() throws IOException {
+        return this.close('}');
+    }
+
+    /**
+     * Start an array.
+     *
+     * @return This writer.
+     * @throws IOException If writing fails.
+     */
+    public JsonWriter beginArray() throws IOException {
+        return this.open('[');
+    }
+
+    /**
+     * End the current array.
+     *
+     * @return This writer.
+     * @throws IOException If writing fails.
+     */
+    public JsonWriter endArray() throws IOException {
+        return this.close(']');
+    }
+
+    /**
+     * Write the name of the next member of the current object.
+     *
+     * @param name The name.
+     * @return This writer.
+     * @throws IOException If writing fails.
+     */
+    public JsonWriter name(String name) throws IOException {
+        this.separate();
+        this.string(name);
+        this.out.write(':');
+        this.afterName = true;
+
+        return this;
+    }
+
+    /**
+     * Write a string value.
+     *
+     * @param value The value, null is written as null.
+     * @return This writer.
+     * @throws IOException If writing fails.
+     */
+    public JsonWriter value(String value) throws IOException {
+        this.separate();
+
+        if (value == null) {
+            this.out.write("null");
+        } else {
+            this.string(value);
+        }
+
+        return this;
+    }
+
+    /**
+     * Write a number value.
+     *
+     * @param value The value.
+     * @return This writer.
+     * @throws IOException If writing fails.
+     */
+    public JsonWriter value(long value) throws IOException {
+        this.separate();
+        this.out.write(Long.toString(value));
+
+        return this;
+    }
+
+    /**
+     * Write a decimal number value.
+     *
+     * @param value The value.
+     * @return This writer.
+     * @throws IOException If writing fails.
+     */
+    public JsonWriter value(double value) throws IOException {
+        this.separate();
+        this.out.write(Double.isFinite(value) ? Double.toString(value) : "null");
+
+        return this;
+    }
+
+    /**
+     * Write a boolean value.
+     *
+     * @param value The value.
+     * @return This writer.
+     * @throws IOException If writing fails.
+     */
+    public JsonWriter value(boolean value) throws IOException {
+        this.separate();
+        this.out.write(value ? "true" : "false");
+
+        return this;
+    }
+
+    /**
+     * Open an object or array.
+     *
+     * @param bracket The opening bracket.
+     * @return This writer.
+     * @throws IOException If writing fails.
+     */
+    private JsonWriter open(char bracket) throws IOException {
+        this.separate();
+        this.out.write(bracket);
+        this.hasValue[++this.depth] = false;
+
+        return this;
+    }
+
+    /**
+     * Close an object or array.
+     *
+     * @param bracket The closing bracket.
+     * @return This writer.
+     * @throws IOException If writing fails.
+     */
+    private JsonWriter close(char bracket) throws IOException {
+        this.out.write(bracket);
+        this.depth--;
+
+        return this;
+    }
+
+    /**
+     * Write a comma if the value about to be written is not the first one in its object/array.
+     *
+     * @throws IOException If writing fails.
+     */
+    private void separate() throws IOException {
+        if (this.afterName) {
+            this.afterName = false;
+
+            return;
+        }
+
+        if (this.hasValue[this.depth]) {
+            this.out.write(',');
+        }
+
+        this.hasValue[this.depth] = true;
+    }
+
+    /**
+     * Write a quoted and escaped string.
+     *
+     * @param value The string.
+     * @throws IOException If writing fails.
+     */
+    private void string(String value) throws IOException {
+        this.out.write('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            switch (c) {
+                case '"' -> this.out.write("\\\"");
+                case '\\' -> this.out.write("\\\\");
+                case '\n' -> this.out.write("\\n");
+                case '\r' -> this.out.write("\\r");
+                case '\t' -> this.out.write("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        this.out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        this.out.write(c);
+                    }
+                }
+            }
+        }
+
+        this.out.write('"');
+    }
+
+    /**
+     * Flush the underlying Writer.
+     *
+     * @throws IOException If flushing fails.
+     */
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+}
@@ -3,7 +3,18 @@ package quest.flo;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
 /**
@@ -23,6 +34,12 @@ public class Main {
 
     /**
      * main methode.
+     * Without args the user is asked if a new Route should be created, then all Routes are printed.
+     * With the args "serve [port]" the Routes are served over HTTP instead, on port 8080 by default.
+     * With the args "generate stations trains routesPerTrain [seed]" a generated timetable replaces all data.
+     * With the args "run [file]" the commands in the file, or on stdin without a file or with "-", are run without prompts.
+     * With the args "exec command; command..." the given commands are run without prompts, see CommandRunner.
+     * With the args "replay file [speed] [concurrency]" a workload captured with -Dtrains.capture=file is run again.
      *
      * @param args Args to pass to the program.
      */
@@ -30,9 +47,78 @@ public class Main {
         log.info("Start");
 
         try {
-            Database db = new Database("jdbc:mariadb://localhost/", "root", null);
+            if (args.length > 1 && args[0].equals("replay")) {
+                replay(args);
+                return;
+            }
+
+            // Read replicas can be passed as a comma separated list: -Dtrains.replicas=jdbc:mariadb://replica1/,...
+            String replicas = System.getProperty("trains.replicas", "");
+            List<String> replicaUrls = replicas.isBlank() ? List.of() : Arrays.asList(replicas.split(","));
+
+            Database db = new Database("jdbc:mariadb://localhost/", replicaUrls, "root", null);
+
+            // Further shards can be passed as a comma separated list: -Dtrains.shards=jdbc:mariadb://shard2/,...
+            // The Routes are spread by train number, or by departure date with -Dtrains.shardKey=DEPARTURE_DATE.
+            String shardUrls = System.getProperty("trains.shards", "");
+            List<Database> shards = new ArrayList<>(List.of(db));
+
+            if (!shardUrls.isBlank()) {
+                for (String url : shardUrls.split(",")) {
+                    shards.add(new Database(url, "root", null));
+                }
+            }
+
+            // Statements slower than -Dtrains.slowQueryMillis (1000 by default) are logged,
+            // -Dtrains.explain=EXPLAIN or ANALYZE also logs their plan, at most once a minute.
+            for (Database shard : shards) {
+                shard.setSlowQueryThreshold(Long.getLong("trains.slowQueryMillis", 1000));
+                shard.setSlowQueryExplain(SlowQueryLog.Explain.valueOf(System.getProperty("trains.explain", "NONE")), 60_000);
+            }
+
+            // All statements are recorded to a file with -Dtrains.capture=file, to replay them later.
+            String captureFile = System.getProperty("trains.capture", "");
+
+            if (!captureFile.isBlank()) {
+                capture(shards, Path.of(captureFile));
+            }
 
-            Trains trains = new Trains(db);
+            Trains trains = new Trains(shards, ShardKey.valueOf(System.getProperty("trains.shardKey", "TRAIN_NUMBER")), "trains");
+
+            if (args.length > 0 && args[0].equals("serve")) {
+                serve(shards, trains, args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+                return;
+            }
+
+            if (args.length > 0 && (args[0].equals("run") || args[0].equals("exec"))) {
+                int failures = runCommands(trains, args);
+
+                trains.close();
+                disconnect(shards);
+
+                if (failures > 0) {
+                    System.exit(1);
+                }
+
+                return;
+            }
+
+            if (args.length > 3 && args[0].equals("generate")) {
+                trains.populate(new TimetableGenerator(
+                        args.length > 4 ? Long.parseLong(args[4]) : 42,
+                        Integer.parseInt(args[1]),
+                        4,
+                        Integer.parseInt(args[2]),
+                        Integer.parseInt(args[3]),
+                        LocalDateTime.of(2023, 12, 4, 5, 0)
+                ));
+
+                System.out.println("Generated " + Long.parseLong(args[2]) * Long.parseLong(args[3]) + " routes");
+
+                trains.close();
+                disconnect(shards);
+                return;
+            }
 
             try (Scanner scan = new Scanner(System.in)) {
                 Boolean createRoute = null;
@@ -55,11 +141,158 @@ public class Main {
 
             System.out.println(trains);
 
-            db.disconnect();
+            trains.close();
+            disconnect(shards);
         } catch (SQLException e) {
             String errorMessage = "Something went wrong: " + e.getMessage();
             log.error(errorMessage);
             System.out.println(errorMessage);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Serve the Routes over HTTP until the program is stopped.
+     *
+     * @param shards The Databases to disconnect from when stopping.
+     * @param trains The train system to serve.
+     * @param port   The port to listen on.
+     * @throws SQLException If loading the Routes fails.
+     */
+    private static void serve(List<Database> shards, Trains trains, int port) throws SQLException {
+        trains.updateRoutes();
+
+        // Changes made by others are picked up every few seconds with -Dtrains.refreshSeconds=n.
+        long refreshSeconds = Long.getLong("trains.refreshSeconds", 0);
+
+        if (refreshSeconds > 0) {
+            trains.refreshEvery(Duration.ofSeconds(refreshSeconds));
+        }
+
+        // The counts of the timetable are written to summary tables every n seconds with -Dtrains.summarySeconds=n.
+        long summarySeconds = Long.getLong("trains.summarySeconds", 0);
+
+        if (summarySeconds > 0) {
+            trains.writeSummaryTablesEvery(Duration.ofSeconds(summarySeconds));
+        }
+
+        try {
+            TimetableServer server = new TimetableServer(trains, port);
+
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                trains.close();
+
+                try {
+                    disconnect(shards);
+                } catch (SQLException e) {
+                    log.error("Failed disconnecting: " + e.getMessage());
+                }
+            }));
+
+            server.start();
+        } catch (IOException e) {
+            String errorMessage = "Failed starting server: " + e.getMessage();
+            log.error(errorMessage);
+            System.out.println(errorMessage);
+        }
+    }
+
+    /**
+     * Run commands without prompts, from a script or from the args.
+     *
+     * @param trains The train system to run the commands on.
+     * @param args   Either "run [file]" or "exec" followed by the commands.
+     * @return The number of commands that failed.
+     */
+    private static int runCommands(Trains trains, String[] args) {
+        // The Routes are loaded by the first command that needs them, not up front.
+        CommandRunner runner = new CommandRunner(trains, System.out);
+
+        if (args[0].equals("exec")) {
+            return runner.run(String.join(" ", Arrays.copyOfRange(args, 1, args.length)));
+        }
+
+        boolean stdin = args.length < 2 || args[1].equals("-");
+
+        try (BufferedReader script = stdin
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Path.of(args[1]), StandardCharsets.UTF_8)) {
+            return runner.run(script);
+        } catch (IOException e) {
+            String errorMessage = "Failed reading commands: " + e.getMessage();
+            log.error(errorMessage);
+            System.out.println(errorMessage);
+
+            return 1;
+        }
+    }
+
+    /**
+     * Record the statements of all shards to a file until the program ends.
+     *
+     * @param shards The Databases whose statements are recorded.
+     * @param file   The file to append the statements to.
+     */
+    private static void capture(List<Database> shards, Path file) {
+        try {
+            WorkloadCapture capture = new WorkloadCapture(file);
+
+            for (Database shard : shards) {
+                shard.setWorkloadCapture(capture);
+            }
+
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    capture.close();
+                } catch (IOException e) {
+                    log.error("Failed writing captured statements: " + e.getMessage());
+                }
+            }));
+        } catch (IOException e) {
+            String errorMessage = "Failed opening " + file + " for capturing statements: " + e.getMessage();
+            log.error(errorMessage);
+            System.out.println(errorMessage);
+        }
+    }
+
+    /**
+     * Replay a captured workload against the local database and print the measurements.
+     * Only SELECT statements are replayed against the trains database. All statements, including the ones that write,
+     * are replayed into a database of their own with -Dtrains.replayWritesInto=name, which must not be trains.
+     *
+     * @param args "replay file [speed] [concurrency]", speed 0 runs the statements as fast as possible.
+     * @throws SQLException If connecting fails.
+     */
+    private static void replay(String[] args) throws SQLException {
+        WorkloadReplay replay = new WorkloadReplay("jdbc:mariadb://localhost/", "root", null, "trains");
+
+        replay.setSpeed(args.length > 2 ? Double.parseDouble(args[2]) : 1);
+        replay.setConcurrency(args.length > 3 ? Integer.parseInt(args[3]) : 4);
+
+        String writeDbName = System.getProperty("trains.replayWritesInto", "");
+
+        if (!writeDbName.isBlank()) {
+            replay.replayWritesInto(writeDbName);
+        }
+
+        try {
+            System.out.print(replay.replay(Path.of(args[1])));
+        } catch (IOException e) {
+            String errorMessage = "Failed reading " + args[1] + ": " + e.getMessage();
+            log.error(errorMessage);
+            System.out.println(errorMessage);
+        }
+    }
+
+    /**
+     * Disconnect from all shards.
+     *
+     * @param shards The Databases to disconnect from.
+     * @throws SQLException If disconnecting from any of them fails.
+     */
+    private static void disconnect(List<Database> shards) throws SQLException {
+        for (Database shard : shards) {
+            shard.disconnect();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package quest.flo;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.*;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Class that holds a Connection and transparently reconnects it once it broke.
+ * Reconnecting backs off exponentially, so a server that is failing over is not hammered with connection attempts.
+ *
+ * @author Florian.WINDISCH
+ */
+public class ManagedConnection {
+    // Logger for the ManagedConnection-Class.
+    private static final Logger log = LogManager.getLogger(ManagedConnection.class);
+
+    // How often connecting is attempted before giving up.
+    private static final int MAX_CONNECT_ATTEMPTS = 6;
+
+    // The delay before the second connection attempt, in milliseconds. Doubles with every attempt.
+    private static final long BASE_BACKOFF = 50;
+
+    // The maximum delay between two connection attempts, in milliseconds.
+    private static final long MAX_BACKOFF = 2000;
+
+    // The url to connect to.
+    private final String url;
+
+    // The user for accessing the database.
+    private final String user;
+
+    // The password for accessing the database.
+    private final String password;
+
+    // The current Connection, replaced when reconnecting.
+    private volatile Connection connection;
+
+    // If the current Connection is known to be broken.
+    private volatile boolean broken = false;
+
+    // The database chosen with use(), restored after reconnecting.
+    private volatile String database;
+
+    // Statements that set up the session, run again after reconnecting.
+    private final List<String> sessionStatements = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructor for the ManagedConnection object, connects right away.
+     *
+     * @param url      The url to use for the Connection, should not include the database.
+     * @param user     The user for accessing the database.
+     * @param password The password for accessing the database.
+     * @throws SQLException If connecting fails, even after backing off.
+     */
+    public ManagedConnection(String url, String user, String password) throws SQLException {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+
+        this.connection = this.connect();
+    }
+
+    /**
+     * Get the Connection, reconnecting first if it is known to be broken or was closed.
+     *
+     * @return An open Connection.
+     * @throws SQLException If reconnecting fails.
+     */
+    public Connection get() throws SQLException {
+        Connection current = this.connection;
+
+        if (!this.broken && !current.isClosed()) {
+            return current;
+        }
+
+        ConnectionWaitEvent event = new ConnectionWaitEvent();
+
+        event.begin();
+
+        try {
+            synchronized (this) {
+                // Another thread might have reconnected while we waited for the lock.
+                if (this.broken || this.connection.isClosed()) {
+                    log.warn("Connection to " + this.url + " broke, reconnecting");
+
+                    try {
+                        this.connection.close();
+                    } catch (SQLException ignored) {
+                        // The old Connection is unusable anyway.
+                    }
+
+                    event.reconnected = true;
+
+                    this.connection = this.connect();
+                    this.broken = false;
+                }
+
+                return this.connection;
+            }
+        } finally {
+            event.server = this.url;
+            event.commit();
+        }
+    }
+
+    /**
+     * Mark the Connection as broken, the next get() reconnects.
+     */
+    public void invalidate() {
+        this.broken = true;
+    }
+
+    /**
+     * Execute a "USE (database)" statement and remember the database for reconnects.
+     *
+     * @param name Name of the database to use.
+     * @throws SQLException If switching the database fails.
+     */
+    public void use(String name) throws SQLException {
+        try (Statement statement = this.get().createStatement()) {
+            statement.execute("USE " + name);
+        }
+
+        this.database = name;
+    }
+
+    /**
+     * Run a statement that sets up the session, for example a "SET SESSION", now and after every reconnect.
+     *
+     * @param sql The statement.
+     * @throws SQLException If running the statement fails.
+     */
+    public void addSessionStatement(String sql) throws SQLException {
+        try (Statement statement = this.get().createStatement()) {
+            statement.execute(sql);
+        }
+
+        this.sessionStatements.add(sql);
+    }
+
+    /**
+     * Open a separate Connection to the same server, with the same session set up.
+     * For transactions, which must not include statements other threads run on the shared Connection.
+     *
+     * @return The new Connection, the caller has to close it.
+     * @throws SQLException If connecting fails, even after backing off.
+     */
+    public Connection open() throws SQLException {
+        return this.connect();
+    }
+
+    /**
+     * Open a new Connection, backing off exponentially between failed attempts.
+     *
+     * @return The new Connection, already using the remembered database.
+     * @throws SQLException The exception of the last attempt if all attempts failed.
+     */
+    private Connection connect() throws SQLException {
+        SQLException lastException = null;
+
+        for (int attempt = 0; attempt < MAX_CONNECT_ATTEMPTS; attempt++) {
+            if (attempt > 0) {
+                backOff(attempt);
+            }
+
+            try {
+                Connection newConnection = DriverManager.getConnection(this.url, this.user, this.password);
+
+                try (Statement statement = newConnection.createStatement()) {
+                    if (this.database != null) {
+                        statement.execute("USE " + this.database);
+                    }
+
+                    for (String sql : this.sessionStatements) {
+                        statement.execute(sql);
+                    }
+                } catch (SQLException e) {
+                    newConnection.close();
+
+                    throw e;
+                }
+
+                return newConnection;
+            } catch (SQLException e) {
+                log.warn("Connection attempt " + (attempt + 1) + " to " + this.url + " failed: " + e.getMessage());
+
+                lastException = e;
+
+                if (!Database.isConnectionError(e)) {
+                    break;
+                }
+            }
+        }
+
+        throw lastException;
+    }
+
+    /**
+     * Sleep before the next connection attempt.
+     * Uses "full jitter", so clients that lost their connection at the same time do not reconnect in lockstep.
+     *
+     * @param attempt The number of the attempt that is about to be made, starting at 1.
+     * @throws SQLException If the thread is interrupted while sleeping.
+     */
+    private static void backOff(int attempt) throws SQLException {
+        long ceiling = Math.min(MAX_BACKOFF, BASE_BACKOFF << Math.min(attempt - 1, 20));
+
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new SQLException("Interrupted while reconnecting", "08001", e);
+        }
+    }
+
+    /**
+     * Get the url of the Connection.
+     *
+     * @return The url.
+     */
+    public String getUrl() {
+        return this.url;
+    }
+
+    /**
+     * Close the Connection.
+     *
+     * @throws SQLException If closing the Connection fails.
+     */
+    public void close() throws SQLException {
+        this.connection.close();
+    }
+}
@@ -1,12 +1,7 @@
 package quest.flo;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.Objects;
 
 /**
  * Class to create a Platform object.
@@ -14,12 +9,15 @@ import java.sql.Timestamp;
  * @author Florian.WINDISCH
  */
 public class Platform {
-    // Logger for the Platform-Class.
-    private static final Logger log = LogManager.getLogger(Platform.class);
+    // The Platform-id.
+    private final int id;
 
     // The Platform number.
     private final int nr;
 
+    // The id of the station the Platform is in.
+    private final int stationId;
+
     // The station the Platform is in.
     private final String station;
 
@@ -30,40 +28,105 @@ public class Platform {
     private final Timestamp time;
 
     /**
-     * Constructor for the Platform object.
-     * Holds the arrival/departure time, the platform number, the train station and the city it is in.
+     * Constructor for the Platform object from already selected data.
      *
-     * @param db       Database object to select data concerning the platform.
-     * @param dbName   Name of the database to use.
-     * @param trainId  Identification number of the train.
-     * @param forwards Is the train on a return trip.
-     * @param getStart Is this the starting or ending station of this Route.
-     * @param time     The arrival/departure time.
-     * @throws SQLException If selecting the data failed.
+     * @param id        The Platform-id.
+     * @param nr        The Platform number.
+     * @param stationId The id of the station the Platform is in.
+     * @param station   The station the Platform is in.
+     * @param city      The city the Platform is in.
+     * @param time      The arrival/departure time.
      */
-    public Platform(
-            Database db, String dbName, int trainId, boolean forwards, boolean getStart, Timestamp time
-    ) throws SQLException {
-        log.info("Finding " + (getStart ? "starting" : "ending") + " platform for train: " + trainId);
-
+    public Platform(int id, int nr, int stationId, String station, String city, Timestamp time) {
+        this.id = id;
+        this.nr = nr;
+        this.stationId = stationId;
+        this.station = station;
+        this.city = city;
         this.time = time;
+    }
 
-        db.use(dbName);
+    /**
+     * Get the id of the Platform.
+     *
+     * @return The Platform-id.
+     */
+    public int getId() {
+        return this.id;
+    }
 
-        PreparedStatement statement = db.prepareStatement(
-                "SELECT p.nr as 'nr', s.name as 'station', c.name as 'city' FROM train_has_platform t LEFT JOIN platform p on t.platform_idplatform = p.idplatform LEFT JOIN station s on p.station_idstation = s.idstation LEFT JOIN city c on s.idstation = c.station_idstation WHERE t.train_nrtrain = ? AND t.start = ? LIMIT 1");
-        statement.setInt(1, trainId);
-        statement.setBoolean(2, (getStart && forwards) || (!getStart && !forwards));
+    /**
+     * Get the Platform number.
+     *
+     * @return The Platform number.
+     */
+    public int getNr() {
+        return this.nr;
+    }
 
-        ResultSet results = statement.executeQuery();
+    /**
+     * Get the id of the station the Platform is in.
+     *
+     * @return The id of the station.
+     */
+    public int getStationId() {
+        return this.stationId;
+    }
 
-        results.first();
+    /**
+     * Get the station the Platform is in.
+     *
+     * @return The name of the station.
+     */
+    public String getStation() {
+        return this.station;
+    }
 
-        this.nr = results.getInt("nr");
-        this.station = results.getString("station");
-        this.city = results.getString("city");
+    /**
+     * Get the city the Platform is in.
+     *
+     * @return The name of the city.
+     */
+    public String getCity() {
+        return this.city;
+    }
+
+    /**
+     * Get the arrival/departure time for this Platform-Instance.
+     *
+     * @return The time.
+     */
+    public Timestamp getTime() {
+        return this.time;
+    }
 
-        results.close();
+    /**
+     * Check if another object is a Platform with the same number, station, city and time.
+     *
+     * @param o The object to compare with.
+     * @return True if both describe the same stop.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Platform other)) return false;
+
+        return this.id == other.id
+                && this.nr == other.nr
+                && this.stationId == other.stationId
+                && Objects.equals(this.station, other.station)
+                && Objects.equals(this.city, other.city)
+                && Objects.equals(this.time, other.time);
+    }
+
+    /**
+     * Calculate a hash code matching equals().
+     *
+     * @return The hash code.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.id, this.nr, this.station, this.city, this.time);
     }
 
     /**
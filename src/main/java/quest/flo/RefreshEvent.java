@@ -0,0 +1,35 @@
+package quest.flo;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event for a whole refresh of the Routes, from loading them until all listeners were called.
+ *
+ * @author Florian.WINDISCH
+ */
+@Name("quest.flo.Refresh")
+@Label("Routes Refresh")
+@Category({"Trains", "Routes"})
+@Description("Loading all Routes, comparing them with the previous ones and publishing the changes")
+@StackTrace(false)
+public class RefreshEvent extends Event {
+    // The number of shards the Routes were loaded from.
+    @Label("Shards")
+    public int shards;
+
+    // The number of Routes loaded.
+    @Label("Routes")
+    public int routes;
+
+    // The number of Routes that were added.
+    @Label("Added")
+    public int added;
+
+    // The number of Routes that changed.
+    @Label("Changed")
+    public int changed;
+
+    // The number of Routes that were removed.
+    @Label("Removed")
+    public int removed;
+}
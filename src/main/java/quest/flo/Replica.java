@@ -0,0 +1,187 @@
+package quest.flo;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.*;
+
+/**
+ * Class that wraps the Connection to a read replica and keeps track of its replication lag.
+ *
+ * @author Florian.WINDISCH
+ */
+public class Replica {
+    // Logger for the Replica-Class.
+    private static final Logger log = LogManager.getLogger(Replica.class);
+
+    // How long a measured lag is trusted before it is measured again, in milliseconds.
+    private static final long LAG_CHECK_INTERVAL = 1000;
+
+    // The url of the replica, used for logging.
+    private final String url;
+
+    // The Connection to the replica.
+    private final ManagedConnection connection;
+
+    // The last measured lag in seconds, null if replication is not running.
+    private volatile Long lag = 0L;
+
+    // When the lag was last measured (System.nanoTime()).
+    private volatile long lastLagCheck;
+
+    // If the lag has been measured at least once.
+    private volatile boolean lagChecked = false;
+
+    // The database the replica should use, null if none was chosen yet.
+    private volatile String database;
+
+    // If the database could be switched to on the replica.
+    private volatile boolean databaseUsed = true;
+
+    /**
+     * Constructor for the Replica object.
+     *
+     * @param url      The url to use for the Connection, should not include the database.
+     * @param user     The user for accessing the replica.
+     * @param password The password for accessing the replica.
+     * @throws SQLException If the connection to the replica fails.
+     */
+    public Replica(String url, String user, String password) throws SQLException {
+        log.info("Connecting to Replica with url: " + url);
+
+        this.url = url;
+
+        try {
+            this.connection = new ManagedConnection(url, user, password);
+        } catch (SQLException e) {
+            String errorMessage = "Failed connecting to Replica " + url + ": " + e.getMessage();
+
+            log.error(errorMessage);
+
+            throw new SQLException(errorMessage, e.getSQLState(), e.getErrorCode(), e);
+        }
+    }
+
+    /**
+     * Check if the replica may be used for reads.
+     * The lag is measured again if the last measurement is older than a second.
+     *
+     * @param maxLag The maximum lag in seconds that is still acceptable.
+     * @return True if replication is running and the replica is not lagging behind too far.
+     */
+    public boolean isUsable(long maxLag) {
+        if (!this.lagChecked || System.nanoTime() - this.lastLagCheck > LAG_CHECK_INTERVAL * 1_000_000) {
+            this.checkLag();
+        }
+
+        Long currentLag = this.lag;
+
+        return this.databaseUsed && currentLag != null && currentLag <= maxLag;
+    }
+
+    /**
+     * Measure the replication lag of the replica.
+     * A server that is not configured as a replica (no status row) counts as not lagging.
+     * If the measurement fails the replica is treated as unusable until the next measurement.
+     */
+    private synchronized void checkLag() {
+        // Another thread might have measured while we waited for the lock.
+        if (this.lagChecked && System.nanoTime() - this.lastLagCheck <= LAG_CHECK_INTERVAL * 1_000_000) {
+            return;
+        }
+
+        if (!this.databaseUsed) {
+            this.switchDatabase();
+        }
+
+        Long measured;
+
+        try (Statement statement = this.connection.get().createStatement();
+             ResultSet rs = statement.executeQuery("SHOW SLAVE STATUS")) {
+            if (rs.next()) {
+                long seconds = rs.getLong("Seconds_Behind_Master");
+
+                measured = rs.wasNull() ? null : seconds;
+            } else {
+                measured = 0L;
+            }
+        } catch (SQLException e) {
+            log.warn("Failed checking lag of Replica " + this.url + ": " + e.getMessage());
+
+            if (Database.isConnectionError(e)) {
+                this.connection.invalidate();
+            }
+
+            measured = null;
+        }
+
+        if (measured == null) {
+            log.warn("Replica " + this.url + " is not replicating, not using it for reads");
+        }
+
+        this.lag = measured;
+        this.lastLagCheck = System.nanoTime();
+        this.lagChecked = true;
+    }
+
+    /**
+     * Execute a "USE (database)" statement on the replica.
+     * A freshly created database might not have been replicated yet,
+     * so a failure only stops the replica from being used until the database shows up.
+     *
+     * @param name Name of the database to use.
+     */
+    public void use(String name) {
+        if (name.equals(this.database) && this.databaseUsed) {
+            return;
+        }
+
+        this.database = name;
+
+        this.switchDatabase();
+    }
+
+    /**
+     * Switch the replica to the database chosen with use().
+     */
+    private void switchDatabase() {
+        try {
+            this.connection.use(this.database);
+
+            this.databaseUsed = true;
+        } catch (SQLException e) {
+            log.warn("Replica " + this.url + " can not use " + this.database + " yet: " + e.getMessage());
+
+            this.databaseUsed = false;
+        }
+    }
+
+    /**
+     * Get the Connection to the replica.
+     *
+     * @return The Connection to the replica, reconnects if it broke.
+     */
+    public ManagedConnection getConnection() {
+        return this.connection;
+    }
+
+    /**
+     * Get the url of the replica.
+     *
+     * @return The url of the replica.
+     */
+    public String getUrl() {
+        return this.url;
+    }
+
+    /**
+     * Close the connection to the replica.
+     *
+     * @throws SQLException If closing the connection fails.
+     */
+    public void disconnect() throws SQLException {
+        log.info("Disconnecting from Replica " + this.url);
+
+        this.connection.close();
+    }
+}
@@ -0,0 +1,57 @@
+package quest.flo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class that limits how many retries may be made in relation to successful calls.
+ * Every success earns a fraction of a retry, every retry spends a whole one,
+ * so a server that keeps failing is not flooded with retries on top of the regular load.
+ *
+ * @author Florian.WINDISCH
+ */
+public class RetryBudget {
+    // How many units one retry costs, a success earns a single unit.
+    private static final int RETRY_COST = 10;
+
+    // The maximum amount of units that can be saved up.
+    private final int capacity;
+
+    // The currently available units.
+    private final AtomicInteger balance;
+
+    /**
+     * Constructor for the RetryBudget object, starts out full.
+     *
+     * @param maxRetries How many retries can be saved up at most.
+     */
+    public RetryBudget(int maxRetries) {
+        this.capacity = maxRetries * RETRY_COST;
+        this.balance = new AtomicInteger(this.capacity);
+    }
+
+    /**
+     * Record a successful call, earning a tenth of a retry.
+     */
+    public void recordSuccess() {
+        this.balance.getAndUpdate(current -> Math.min(this.capacity, current + 1));
+    }
+
+    /**
+     * Try to spend a retry.
+     *
+     * @return True if the retry may be made.
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = this.balance.get();
+
+            if (current < RETRY_COST) {
+                return false;
+            }
+
+            if (this.balance.compareAndSet(current, current - RETRY_COST)) {
+                return true;
+            }
+        }
+    }
+}
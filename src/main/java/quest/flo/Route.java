@@ -1,12 +1,7 @@
 package quest.flo;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.Objects;
 
 /**
  * Class to create a Route object.
@@ -14,9 +9,6 @@ import java.sql.Timestamp;
  * @author Florian.WINDISCH
  */
 public class Route {
-    // Logger for the Route-Class
-    private static final Logger log = LogManager.getLogger(Route.class);
-
     // The Route-id.
     private final int id;
 
@@ -33,63 +25,94 @@ public class Route {
     private final Platform departure;
 
     /**
-     * Constructor for the Route object.
-     * Holds the train that is used for this route, the stations on the route and arrival/departure times.
+     * Constructor for the Route object from already selected data.
+     * Does not query the database, so it can be used while results are streamed.
      *
-     * @param db        Database object, used to query the data.
-     * @param dbName    The name of the database to use.
      * @param id        The id of the Route.
-     * @param arrival   Timestamp of arrival.
-     * @param departure Timestamp of departure.
      * @param trainNr   The identification number of the train.
-     * @param direction Is the train on a return trip.
-     * @throws SQLException If getting info for the train or creating the Platform objects fails.
+     * @param trainType The type of the train.
+     * @param departure The Platform the train departs from.
+     * @param arrival   The Platform the train arrives at.
      */
-    public Route(
-            Database db, String dbName, int id, Timestamp departure, Timestamp arrival, int trainNr, boolean direction
-    ) throws SQLException {
+    public Route(int id, int trainNr, String trainType, Platform departure, Platform arrival) {
         this.id = id;
         this.trainNr = trainNr;
-        this.trainType = this.getTrainType(db, dbName);
-
-        log.info("Creating route " + id + " for train " + this.trainType + " " + trainNr + " in " + (direction ? "forwards" : "reverse") + " direction");
-
-        this.arrival = new Platform(db, dbName, trainNr, direction, true, arrival);
-        this.departure = new Platform(db, dbName, trainNr, direction, false, departure);
+        this.trainType = trainType;
+        this.departure = departure;
+        this.arrival = arrival;
     }
 
     /**
-     * Get the type of the train from the Database.
+     * Get the id of the Route.
      *
-     * @param db     Database used to select the train-type.
-     * @param dbName Name of the database to use.
-     * @return The train-type.
-     * @throws SQLException If selecting the data fails.
+     * @return The Route-id.
      */
-    private String getTrainType(Database db, String dbName) throws SQLException {
-        db.use(dbName);
-
-        try {
-            PreparedStatement statement = db.prepareStatement(
-                    "SELECT tt.name as 'type' FROM traintype tt LEFT JOIN train t ON t.traintype_idtraintype = tt.idtraintype WHERE tt.idtraintype = ? LIMIT 1");
-            statement.setInt(1, this.trainNr);
-
-            ResultSet results = statement.executeQuery();
+    public int getId() {
+        return this.id;
+    }
 
-            results.first();
+    /**
+     * Get the number of the train on this Route.
+     *
+     * @return The identifying number of the train.
+     */
+    public int getTrainNr() {
+        return this.trainNr;
+    }
 
-            String type = results.getString("type");
+    /**
+     * Get the type of the train on this Route.
+     *
+     * @return The type of the train.
+     */
+    public String getTrainType() {
+        return this.trainType;
+    }
 
-            results.close();
+    /**
+     * Get the Platform the train departs from.
+     *
+     * @return The departure Platform, holding the departure time.
+     */
+    public Platform getDeparture() {
+        return this.departure;
+    }
 
-            return type;
-        } catch (SQLException e) {
-            String errorMessage = "Failed selecting train-types: " + e.getMessage();
+    /**
+     * Get the Platform the train arrives at.
+     *
+     * @return The arrival Platform, holding the arrival time.
+     */
+    public Platform getArrival() {
+        return this.arrival;
+    }
 
-            log.error(errorMessage);
+    /**
+     * Check if another object is a Route with the same id, train and Platforms.
+     *
+     * @param o The object to compare with.
+     * @return True if both describe the same Route.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Route other)) return false;
+
+        return this.id == other.id
+                && this.trainNr == other.trainNr
+                && Objects.equals(this.trainType, other.trainType)
+                && Objects.equals(this.departure, other.departure)
+                && Objects.equals(this.arrival, other.arrival);
+    }
 
-            throw new SQLException(errorMessage);
-        }
+    /**
+     * Calculate a hash code matching equals().
+     *
+     * @return The hash code.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.id, this.trainNr, this.trainType, this.departure, this.arrival);
     }
 
     /**
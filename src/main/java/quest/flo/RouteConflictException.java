@@ -0,0 +1,42 @@
+package quest.flo;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Exception for new Routes that conflict with the timetable or with each other, so they were not inserted.
+ * Nothing went wrong in the database, the Routes are not possible as they are.
+ *
+ * @author Florian.WINDISCH
+ */
+public class RouteConflictException extends SQLException {
+    // Version of the serialized form.
+    private static final long serialVersionUID = 1L;
+
+    // The SQLState of conflicts, in the class for application defined conditions.
+    public static final String SQL_STATE = "45000";
+
+    // The conflicts that were found.
+    private final transient List<ConflictChecker.Conflict> conflicts;
+
+    /**
+     * Constructor for the RouteConflictException object.
+     *
+     * @param message   The error message.
+     * @param conflicts The conflicts that were found.
+     */
+    public RouteConflictException(String message, List<ConflictChecker.Conflict> conflicts) {
+        super(message, SQL_STATE);
+
+        this.conflicts = List.copyOf(conflicts);
+    }
+
+    /**
+     * Get the conflicts that were found.
+     *
+     * @return The conflicts.
+     */
+    public List<ConflictChecker.Conflict> getConflicts() {
+        return this.conflicts;
+    }
+}
@@ -0,0 +1,61 @@
+package quest.flo;
+
+/**
+ * A change of a Route, as noticed by the train system.
+ *
+ * @param type     What happened to the Route.
+ * @param routeId  The id of the Route.
+ * @param previous The Route before the change, null if it was added.
+ * @param current  The Route after the change, null if it was removed.
+ * @author Florian.WINDISCH
+ */
+public record RouteEvent(Type type, int routeId, Route previous, Route current) {
+    /**
+     * The kinds of changes a Route can go through.
+     */
+    public enum Type {
+        /**
+         * The Route is new.
+         */
+        ADDED,
+        /**
+         * The times, train or platforms of the Route changed.
+         */
+        CHANGED,
+        /**
+         * The Route does not exist anymore.
+         */
+        REMOVED
+    }
+
+    /**
+     * Create an event for a new Route.
+     *
+     * @param route The new Route.
+     * @return The event.
+     */
+    public static RouteEvent added(Route route) {
+        return new RouteEvent(Type.ADDED, route.getId(), null, route);
+    }
+
+    /**
+     * Create an event for a changed Route.
+     *
+     * @param previous The Route before the change.
+     * @param current  The Route after the change.
+     * @return The event.
+     */
+    public static RouteEvent changed(Route previous, Route current) {
+        return new RouteEvent(Type.CHANGED, current.getId(), previous, current);
+    }
+
+    /**
+     * Create an event for a removed Route.
+     *
+     * @param route The removed Route.
+     * @return The event.
+     */
+    public static RouteEvent removed(Route route) {
+        return new RouteEvent(Type.REMOVED, route.getId(), route, null);
+    }
+}
@@ -0,0 +1,21 @@
+package quest.flo;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event for building one Route with its Platforms from a row of the results.
+ * Disabled by default, since there is one event per Route. Enable it for a recording to find slow rows.
+ *
+ * @author Florian.WINDISCH
+ */
+@Name("quest.flo.RouteHydration")
+@Label("Route Hydration")
+@Category({"Trains", "Routes"})
+@Description("Building one Route and its Platforms from a row of the results")
+@StackTrace(false)
+@Enabled(false)
+public class RouteHydrationEvent extends Event {
+    // The id of the Route.
+    @Label("Route Id")
+    public int routeId;
+}
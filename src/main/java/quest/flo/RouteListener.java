@@ -0,0 +1,18 @@
+package quest.flo;
+
+/**
+ * Interface for objects that keep track of the Routes of a train system while it changes.
+ * Listeners are called synchronously by the thread changing the Routes, in the order of the changes,
+ * so they must be quick. Use Trains.subscribe() to receive events asynchronously instead.
+ *
+ * @author Florian.WINDISCH
+ */
+@FunctionalInterface
+public interface RouteListener {
+    /**
+     * Called for every change of a Route.
+     *
+     * @param event The change.
+     */
+    void onRouteEvent(RouteEvent event);
+}
@@ -0,0 +1,571 @@
+package quest.flo;
+
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Class that keeps Routes in a compact, column by column form.
+ * Every Route takes a few ints and two longs in parallel arrays, instead of a Route, two Platforms and two Timestamps.
+ * Train types are dictionary-encoded and the Platforms (without times) are kept once per Platform-id.
+ * Route objects are only created when asked for, as views of one row.
+ * A RouteStore is never changed after it was built, so it can be read by any number of threads.
+ * The rows are ordered by Route-id.
+ *
+ * @author Florian.WINDISCH
+ */
+public class RouteStore {
+    // Marks a missing time.
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    // An empty store.
+    private static final RouteStore EMPTY = new Builder().build();
+
+    // The number of Routes.
+    private final int size;
+
+    // The Route-ids, ascending.
+    private final int[] ids;
+
+    // The train number of every Route.
+    private final int[] trainNrs;
+
+    // The index of the train type of every Route in types, -1 if it is unknown.
+    private final int[] trainTypes;
+
+    // The id of the departure Platform of every Route.
+    private final int[] departurePlatforms;
+
+    // The id of the arrival Platform of every Route.
+    private final int[] arrivalPlatforms;
+
+    // The departure time of every Route, in epoch milliseconds.
+    private final long[] departureTimes;
+
+    // The arrival time of every Route, in epoch milliseconds.
+    private final long[] arrivalTimes;
+
+    // The names of the train types.
+    private final String[] types;
+
+    // The Platforms without a time, by Platform-id.
+    private final Map<Integer, Platform> platforms;
+
+    /**
+     * Class to collect Routes and build a RouteStore from them.
+     * Not thread safe, each thread needs its own Builder.
+     */
+    public static class Builder {
+        // The number of Routes added.
+        private int size = 0;
+
+        // The Route-ids, in the order they were added. All columns grow together.
+        private int[] ids = new int[16];
+
+        // The train numbers.
+        private int[] trainNrs = new int[16];
+
+        // The indexes of the train types, -1 if unknown.
+        private int[] trainTypes = new int[16];
+
+        // The departure Platform-ids.
+        private int[] departurePlatforms = new int[16];
+
+        // The arrival Platform-ids.
+        private int[] arrivalPlatforms = new int[16];
+
+        // The departure times, in epoch milliseconds.
+        private long[] departureTimes = new long[16];
+
+        // The arrival times, in epoch milliseconds.
+        private long[] arrivalTimes = new long[16];
+
+        // The names of the train types, in order of their index.
+        private final List<String> types = new ArrayList<>();
+
+        // The index of every train type.
+        private final Map<String, Integer> typeIndexes = new HashMap<>();
+
+        // The Platforms without a time, by Platform-id.
+        private final Map<Integer, Platform> platforms = new HashMap<>();
+
+        /**
+         * Add a Route.
+         *
+         * @param route The Route.
+         * @return This Builder.
+         */
+        public Builder add(Route route) {
+            this.grow();
+
+            int row = this.size++;
+
+            this.ids[row] = route.getId();
+            this.trainNrs[row] = route.getTrainNr();
+            this.trainTypes[row] = this.typeIndex(route.getTrainType());
+            this.departurePlatforms[row] = this.platform(route.getDeparture());
+            this.arrivalPlatforms[row] = this.platform(route.getArrival());
+            this.departureTimes[row] = toEpoch(route.getDeparture().getTime());
+            this.arrivalTimes[row] = toEpoch(route.getArrival().getTime());
+
+            return this;
+        }
+
+        /**
+         * Add all Routes another Builder collected.
+         *
+         * @param other The other Builder.
+         * @return This Builder.
+         */
+        public Builder addAll(Builder other) {
+            this.platforms.putAll(other.platforms);
+
+            for (int i = 0; i < other.size; i++) {
+                this.grow();
+
+                int row = this.size++;
+
+                this.ids[row] = other.ids[i];
+                this.trainNrs[row] = other.trainNrs[i];
+                this.trainTypes[row] = other.trainTypes[i] < 0 ? -1 : this.typeIndex(other.types.get(other.trainTypes[i]));
+                this.departurePlatforms[row] = other.departurePlatforms[i];
+                this.arrivalPlatforms[row] = other.arrivalPlatforms[i];
+                this.departureTimes[row] = other.departureTimes[i];
+                this.arrivalTimes[row] = other.arrivalTimes[i];
+            }
+
+            return this;
+        }
+
+        /**
+         * Build the RouteStore, ordering the Routes by id.
+         * If a Route-id was added more than once, the Route added last is kept.
+         *
+         * @return The RouteStore.
+         */
+        public RouteStore build() {
+            // Sort the rows by id without boxing: the id goes into the upper, the row into the lower half of a long.
+            long[] order = new long[this.size];
+
+            for (int row = 0; row < this.size; row++) {
+                order[row] = (long) this.ids[row] << 32 | row;
+            }
+
+            Arrays.sort(order);
+
+            int[] rows = new int[this.size];
+            int count = 0;
+
+            for (int i = 0; i < order.length; i++) {
+                int row = (int) order[i];
+
+                if (count > 0 && this.ids[rows[count - 1]] == this.ids[row]) {
+                    rows[count - 1] = row;
+                } else {
+                    rows[count++] = row;
+                }
+            }
+
+            return new RouteStore(this, rows, count);
+        }
+
+        /**
+         * Make room for one more Route.
+         */
+        private void grow() {
+            if (this.size < this.ids.length) {
+                return;
+            }
+
+            int capacity = this.ids.length * 2;
+
+            this.ids = Arrays.copyOf(this.ids, capacity);
+            this.trainNrs = Arrays.copyOf(this.trainNrs, capacity);
+            this.trainTypes = Arrays.copyOf(this.trainTypes, capacity);
+            this.departurePlatforms = Arrays.copyOf(this.departurePlatforms, capacity);
+            this.arrivalPlatforms = Arrays.copyOf(this.arrivalPlatforms, capacity);
+            this.departureTimes = Arrays.copyOf(this.departureTimes, capacity);
+            this.arrivalTimes = Arrays.copyOf(this.arrivalTimes, capacity);
+        }
+
+        /**
+         * Get the index of a train type, adding it to the dictionary if it is new.
+         *
+         * @param type The train type, may be null.
+         * @return The index, -1 for null.
+         */
+        private int typeIndex(String type) {
+            if (type == null) {
+                return -1;
+            }
+
+            return this.typeIndexes.computeIfAbsent(type, name -> {
+                this.types.add(name);
+
+                return this.types.size() - 1;
+            });
+        }
+
+        /**
+         * Remember a Platform without its time.
+         *
+         * @param platform The Platform.
+         * @return The Platform-id.
+         */
+        private int platform(Platform platform) {
+            this.platforms.computeIfAbsent(platform.getId(), id -> new Platform(
+                    id, platform.getNr(), platform.getStationId(), platform.getStation(), platform.getCity(), null
+            ));
+
+            return platform.getId();
+        }
+    }
+
+    /**
+     * Constructor for the RouteStore object, copies the chosen rows of a Builder.
+     *
+     * @param builder The Builder.
+     * @param rows    The rows of the Builder to keep, ordered by id.
+     * @param size    The number of rows to keep.
+     */
+    private RouteStore(Builder builder, int[] rows, int size) {
+        this.size = size;
+        this.ids = new int[size];
+        this.trainNrs = new int[size];
+        this.trainTypes = new int[size];
+        this.departurePlatforms = new int[size];
+        this.arrivalPlatforms = new int[size];
+        this.departureTimes = new long[size];
+        this.arrivalTimes = new long[size];
+        this.types = builder.types.toArray(new String[0]);
+        this.platforms = Map.copyOf(builder.platforms);
+
+        for (int i = 0; i < size; i++) {
+            int row = rows[i];
+
+            this.ids[i] = builder.ids[row];
+            this.trainNrs[i] = builder.trainNrs[row];
+            this.trainTypes[i] = builder.trainTypes[row];
+            this.departurePlatforms[i] = builder.departurePlatforms[row];
+            this.arrivalPlatforms[i] = builder.arrivalPlatforms[row];
+            this.departureTimes[i] = builder.departureTimes[row];
+            this.arrivalTimes[i] = builder.arrivalTimes[row];
+        }
+    }
+
+    /**
+     * Constructor for the RouteStore object, sharing all columns but the times with another store.
+     *
+     * @param other          The store to share the columns of.
+     * @param departureTimes The new departure times.
+     * @param arrivalTimes   The new arrival times.
+     */
+    private RouteStore(RouteStore other, long[] departureTimes, long[] arrivalTimes) {
+        this.size = other.size;
+        this.ids = other.ids;
+        this.trainNrs = other.trainNrs;
+        this.trainTypes = other.trainTypes;
+        this.departurePlatforms = other.departurePlatforms;
+        this.arrivalPlatforms = other.arrivalPlatforms;
+        this.types = other.types;
+        this.platforms = other.platforms;
+        this.departureTimes = departureTimes;
+        this.arrivalTimes = arrivalTimes;
+    }
+
+    /**
+     * Get a copy of this store with some times replaced.
+     * Only the two time columns are copied, all other columns are shared, since no store ever changes them.
+     *
+     * @param times The new departure and arrival time by Route-id, in epoch milliseconds. Unknown ids are ignored.
+     * @return The new store.
+     */
+    public RouteStore withTimes(Map<Integer, long[]> times) {
+        long[] departures = this.departureTimes.clone();
+        long[] arrivals = this.arrivalTimes.clone();
+
+        times.forEach((routeId, time) -> {
+            int index = this.indexOf(routeId);
+
+            if (index >= 0) {
+                departures[index] = time[0];
+                arrivals[index] = time[1];
+            }
+        });
+
+        return new RouteStore(this, departures, arrivals);
+    }
+
+    /**
+     * Get a RouteStore without Routes.
+     *
+     * @return The empty RouteStore.
+     */
+    public static RouteStore empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Get the number of Routes.
+     *
+     * @return The number of Routes.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Check if there are no Routes.
+     *
+     * @return True if the store is empty.
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Find the row of a Route.
+     *
+     * @param routeId The Route-id.
+     * @return The row, or a negative number if there is no such Route.
+     */
+    public int indexOf(int routeId) {
+        return Arrays.binarySearch(this.ids, 0, this.size, routeId);
+    }
+
+    /**
+     * Get a Route by id.
+     *
+     * @param routeId The Route-id.
+     * @return A new Route object for the Route, or null if there is no such Route.
+     */
+    public Route get(int routeId) {
+        int index = this.indexOf(routeId);
+
+        return index < 0 ? null : this.routeAt(index);
+    }
+
+    /**
+     * Get the Route in a row.
+     *
+     * @param index The row.
+     * @return A new Route object for the Route.
+     */
+    public Route routeAt(int index) {
+        return new Route(
+                this.ids[index],
+                this.trainNrs[index],
+                this.trainTypeAt(index),
+                this.platformAt(this.departurePlatforms[index], this.departureTimes[index]),
+                this.platformAt(this.arrivalPlatforms[index], this.arrivalTimes[index])
+        );
+    }
+
+    /**
+     * Get the Route-id in a row.
+     *
+     * @param index The row.
+     * @return The Route-id.
+     */
+    public int idAt(int index) {
+        return this.ids[index];
+    }
+
+    /**
+     * Get the train number in a row.
+     *
+     * @param index The row.
+     * @return The train number.
+     */
+    public int trainNrAt(int index) {
+        return this.trainNrs[index];
+    }
+
+    /**
+     * Get the train type in a row.
+     *
+     * @param index The row.
+     * @return The train type, null if it is unknown.
+     */
+    public String trainTypeAt(int index) {
+        return this.trainTypes[index] < 0 ? null : this.types[this.trainTypes[index]];
+    }
+
+    /**
+     * Get the departure Platform-id in a row.
+     *
+     * @param index The row.
+     * @return The Platform-id.
+     */
+    public int departurePlatformAt(int index) {
+        return this.departurePlatforms[index];
+    }
+
+    /**
+     * Get the arrival Platform-id in a row.
+     *
+     * @param index The row.
+     * @return The Platform-id.
+     */
+    public int arrivalPlatformAt(int index) {
+        return this.arrivalPlatforms[index];
+    }
+
+    /**
+     * Get the departure time in a row.
+     *
+     * @param index The row.
+     * @return The time in epoch milliseconds, Long.MIN_VALUE if it is unknown.
+     */
+    public long departureTimeAt(int index) {
+        return this.departureTimes[index];
+    }
+
+    /**
+     * Get the arrival time in a row.
+     *
+     * @param index The row.
+     * @return The time in epoch milliseconds, Long.MIN_VALUE if it is unknown.
+     */
+    public long arrivalTimeAt(int index) {
+        return this.arrivalTimes[index];
+    }
+
+    /**
+     * Count the Routes departing in a time range.
+     * Runs over the departure times only, without creating any objects.
+     *
+     * @param from The start of the range in epoch milliseconds, inclusive.
+     * @param to   The end of the range in epoch milliseconds, exclusive.
+     * @return The number of Routes.
+     */
+    public int countDepartures(long from, long to) {
+        long[] times = this.departureTimes;
+        int count = 0;
+
+        for (int i = 0; i < this.size; i++) {
+            long time = times[i];
+
+            count += time >= from && time < to ? 1 : 0;
+        }
+
+        return count;
+    }
+
+    /**
+     * Check if a row of this store holds the same Route as a row of another store.
+     * Compares the same values Route.equals() does, without creating Route objects.
+     *
+     * @param index      The row in this store.
+     * @param other      The other store.
+     * @param otherIndex The row in the other store.
+     * @return True if the Routes are equal.
+     */
+    public boolean sameRoute(int index, RouteStore other, int otherIndex) {
+        return this.ids[index] == other.ids[otherIndex]
+                && this.trainNrs[index] == other.trainNrs[otherIndex]
+                && this.departureTimes[index] == other.departureTimes[otherIndex]
+                && this.arrivalTimes[index] == other.arrivalTimes[otherIndex]
+                && this.departurePlatforms[index] == other.departurePlatforms[otherIndex]
+                && this.arrivalPlatforms[index] == other.arrivalPlatforms[otherIndex]
+                && Objects.equals(this.trainTypeAt(index), other.trainTypeAt(otherIndex))
+                && Objects.equals(this.platforms.get(this.departurePlatforms[index]), other.platforms.get(other.departurePlatforms[otherIndex]))
+                && Objects.equals(this.platforms.get(this.arrivalPlatforms[index]), other.platforms.get(other.arrivalPlatforms[otherIndex]));
+    }
+
+    /**
+     * Hand every Route to a consumer, ordered by id.
+     *
+     * @param consumer Receives a new Route object for every Route.
+     */
+    public void forEach(Consumer<Route> consumer) {
+        for (int i = 0; i < this.size; i++) {
+            consumer.accept(this.routeAt(i));
+        }
+    }
+
+    /**
+     * Get a read-only Map view of the Routes by id.
+     * Route objects are created whenever the Map hands one out.
+     *
+     * @return The Map.
+     */
+    public Map<Integer, Route> asMap() {
+        return new AbstractMap<>() {
+            @Override
+            public Route get(Object key) {
+                return key instanceof Integer id ? RouteStore.this.get(id) : null;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof Integer id && RouteStore.this.indexOf(id) >= 0;
+            }
+
+            @Override
+            public int size() {
+                return RouteStore.this.size;
+            }
+
+            @Override
+            public Set<Entry<Integer, Route>> entrySet() {
+                return new AbstractSet<>() {
+                    @Override
+                    public Iterator<Entry<Integer, Route>> iterator() {
+                        return new Iterator<>() {
+                            // The next row to hand out.
+                            private int next = 0;
+
+                            @Override
+                            public boolean hasNext() {
+                                return this.next < RouteStore.this.size;
+                            }
+
+                            @Override
+                            public Entry<Integer, Route> next() {
+                                if (!this.hasNext()) {
+                                    throw new NoSuchElementException();
+                                }
+
+                                int index = this.next++;
+
+                                return Map.entry(RouteStore.this.ids[index], RouteStore.this.routeAt(index));
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return RouteStore.this.size;
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Create a Platform with a time from the Platforms kept without one.
+     *
+     * @param platformId The Platform-id.
+     * @param time       The time in epoch milliseconds.
+     * @return The Platform.
+     */
+    private Platform platformAt(int platformId, long time) {
+        Platform platform = this.platforms.get(platformId);
+
+        return new Platform(
+                platformId, platform.getNr(), platform.getStationId(), platform.getStation(), platform.getCity(),
+                time == NO_TIME ? null : new Timestamp(time)
+        );
+    }
+
+    /**
+     * Convert a Timestamp to epoch milliseconds.
+     *
+     * @param time The Timestamp, may be null.
+     * @return The epoch milliseconds, NO_TIME for null.
+     */
+    private static long toEpoch(Timestamp time) {
+        return time == null ? NO_TIME : time.getTime();
+    }
+}
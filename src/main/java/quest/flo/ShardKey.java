@@ -0,0 +1,34 @@
+package quest.flo;
+
+import java.sql.Timestamp;
+
+/**
+ * The ways Routes can be spread over several databases.
+ *
+ * @author Florian.WINDISCH
+ */
+public enum ShardKey {
+    /**
+     * All Routes of a train are in the same database.
+     */
+    TRAIN_NUMBER,
+    /**
+     * All Routes departing on the same day are in the same database.
+     */
+    DEPARTURE_DATE;
+
+    /**
+     * Choose the database a Route belongs in.
+     *
+     * @param trainNr   The number of the train on the Route.
+     * @param departure The departure time of the Route.
+     * @param shards    The number of databases.
+     * @return The index of the database, from 0 to shards - 1.
+     */
+    public int shardFor(int trainNr, Timestamp departure, int shards) {
+        return switch (this) {
+            case TRAIN_NUMBER -> Math.floorMod(trainNr, shards);
+            case DEPARTURE_DATE -> (int) Math.floorMod(departure.toLocalDateTime().toLocalDate().toEpochDay(), (long) shards);
+        };
+    }
+}
@@ -0,0 +1,202 @@
+package quest.flo;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class that logs statements taking longer than a threshold, with their parameters and timing.
+ * Optionally the execution plan of a slow statement is captured as JSON, at most once per interval,
+ * so a statement that is slow on every call does not double the load on the server.
+ *
+ * @author Florian.WINDISCH
+ */
+public class SlowQueryLog {
+    // Logger for the SlowQueryLog-Class.
+    private static final Logger log = LogManager.getLogger(SlowQueryLog.class);
+
+    // Parameters longer than this are cut off in the log.
+    private static final int MAX_PARAM_LENGTH = 100;
+
+    // Statements taking at least this long are logged, in nanoseconds. Negative to log none.
+    private volatile long threshold = TimeUnit.SECONDS.toNanos(1);
+
+    // How the plan of a slow statement is captured.
+    private volatile Explain explain = Explain.NONE;
+
+    // The minimum time between two captured plans, in nanoseconds.
+    private volatile long explainInterval = TimeUnit.MINUTES.toNanos(1);
+
+    // When the next plan may be captured (System.nanoTime()).
+    private final AtomicLong nextExplain = new AtomicLong(System.nanoTime());
+
+    /**
+     * The ways the plan of a slow statement can be captured.
+     */
+    public enum Explain {
+        /**
+         * Do not capture plans.
+         */
+        NONE,
+        /**
+         * Capture the estimated plan with "EXPLAIN FORMAT=JSON", the statement is not run again.
+         */
+        EXPLAIN,
+        /**
+         * Run SELECT statements again with "ANALYZE FORMAT=JSON" to capture the plan with real row counts and timings.
+         * Other statements are only explained, since analyzing them would apply them again.
+         */
+        ANALYZE
+    }
+
+    /**
+     * Set how long a statement may take before it is logged.
+     *
+     * @param millis The threshold in milliseconds, negative to log no statements.
+     */
+    public void setThreshold(long millis) {
+        this.threshold = millis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Set how the plan of a slow statement is captured.
+     *
+     * @param explain  How the plan is captured.
+     * @param interval The minimum time between two captured plans, in milliseconds.
+     */
+    public void setExplain(Explain explain, long interval) {
+        this.explain = explain;
+        this.explainInterval = TimeUnit.MILLISECONDS.toNanos(interval);
+    }
+
+    /**
+     * Check if a statement was slow enough to be logged.
+     *
+     * @param nanos How long the statement took.
+     * @return True if it has to be logged.
+     */
+    public boolean isSlow(long nanos) {
+        long threshold = this.threshold;
+
+        return threshold >= 0 && nanos >= threshold;
+    }
+
+    /**
+     * Log a statement if it was slow and capture its plan if that is enabled and the rate limit allows.
+     * Never throws, problems while capturing the plan are only logged.
+     *
+     * @param target The connection the statement ran on, the plan is captured on the same server.
+     * @param sql    The statement.
+     * @param params The values of its parameter placeholders.
+     * @param nanos  How long the statement took.
+     * @param rows   The number of rows read or changed, negative if unknown.
+     * @param failed If the statement failed.
+     */
+    public void record(ManagedConnection target, String sql, Object[] params, long nanos, long rows, boolean failed) {
+        if (!this.isSlow(nanos)) {
+            return;
+        }
+
+        log.warn("Slow " + (failed ? "failed " : "") + "statement on " + target.getUrl() + " took "
+                + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms" + (rows >= 0 ? ", " + rows + " rows" : "")
+                + ": " + sql + " with parameters " + describe(params));
+
+        Explain explain = this.explain;
+        String verb = statementVerb(sql);
+
+        // A failed statement might have failed because the connection broke, it is not explained.
+        if (failed || explain == Explain.NONE || verb == null || !this.tryAcquireExplain()) {
+            return;
+        }
+
+        String prefix = explain == Explain.ANALYZE && verb.equals("SELECT") ? "ANALYZE FORMAT=JSON " : "EXPLAIN FORMAT=JSON ";
+
+        try (PreparedStatement statement = target.get().prepareStatement(prefix + sql)) {
+            for (int i = 0; i < params.length; i++) {
+                statement.setObject(i + 1, params[i]);
+            }
+
+            StringBuilder plan = new StringBuilder();
+
+            try (ResultSet results = statement.executeQuery()) {
+                while (results.next()) {
+                    plan.append(results.getString(1));
+                }
+            }
+
+            log.warn("Plan of slow statement " + sql + ": " + plan);
+        } catch (SQLException e) {
+            log.warn("Failed capturing plan of slow statement " + sql + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Take the chance to capture a plan, if the last one was captured long enough ago.
+     *
+     * @return True if a plan may be captured now.
+     */
+    private boolean tryAcquireExplain() {
+        long now = System.nanoTime();
+        long next = this.nextExplain.get();
+
+        return now - next >= 0 && this.nextExplain.compareAndSet(next, now + this.explainInterval);
+    }
+
+    /**
+     * Get the kind of a statement, if its plan can be captured.
+     *
+     * @param sql The statement.
+     * @return SELECT, UPDATE or DELETE, null for all other statements.
+     */
+    private static String statementVerb(String sql) {
+        String trimmed = sql.stripLeading();
+        int end = 0;
+
+        while (end < trimmed.length() && Character.isLetter(trimmed.charAt(end))) {
+            end++;
+        }
+
+        String verb = trimmed.substring(0, end).toUpperCase();
+
+        return switch (verb) {
+            case "SELECT", "UPDATE", "DELETE" -> verb;
+            default -> null;
+        };
+    }
+
+    /**
+     * Describe the values of parameter placeholders for the log.
+     *
+     * @param params The values.
+     * @return The values as a list, strings and times are quoted and long values cut off.
+     */
+    private static String describe(Object[] params) {
+        StringBuilder description = new StringBuilder("[");
+
+        for (int i = 0; i < params.length; i++) {
+            if (i > 0) {
+                description.append(", ");
+            }
+
+            Object param = params[i];
+
+            if (param == null || param instanceof Number || param instanceof Boolean) {
+                description.append(param);
+                continue;
+            }
+
+            String value = param.toString();
+
+            if (value.length() > MAX_PARAM_LENGTH) {
+                value = value.substring(0, MAX_PARAM_LENGTH) + "...";
+            }
+
+            description.append('\'').append(value).append('\'');
+        }
+
+        return description.append(']').toString();
+    }
+}
@@ -0,0 +1,38 @@
+package quest.flo;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder event for a statement run through the Database, from preparing it until its results were read.
+ * Stack traces are not recorded, so the event is cheap enough to stay enabled.
+ *
+ * @author Florian.WINDISCH
+ */
+@Name("quest.flo.Statement")
+@Label("Statement")
+@Category({"Trains", "Database"})
+@Description("A statement run through the Database, including reading its results")
+@StackTrace(false)
+public class StatementEvent extends Event {
+    // The statement.
+    @Label("SQL")
+    public String sql;
+
+    // The url of the server the statement ran on.
+    @Label("Server")
+    public String server;
+
+    // The number of rows read or changed.
+    @Label("Rows")
+    @Description("Rows read or changed, -1 if unknown")
+    public long rows;
+
+    // The number of parameter sets the statement ran with.
+    @Label("Batch Size")
+    @Description("Parameter sets of a batch, 1 for a single statement")
+    public int batchSize;
+
+    // If the statement failed.
+    @Label("Failed")
+    public boolean failed;
+}
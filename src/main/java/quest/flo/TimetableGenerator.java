@@ -0,0 +1,444 @@
+package quest.flo;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.SplittableRandom;
+
+/**
+ * Class that fills the train system with a generated timetable of any size, for load testing.
+ * The same seed and sizes always generate the same timetable.
+ * Every train shuttles between two stations, its Routes follow each other without overlapping.
+ * Rows are inserted with multi-row INSERT statements in large transactions, with foreign key checks switched off.
+ *
+ * @author Florian.WINDISCH
+ */
+public class TimetableGenerator {
+    // Logger for the TimetableGenerator-Class.
+    private static final Logger log = LogManager.getLogger(TimetableGenerator.class);
+
+    // The train types every generated timetable uses.
+    private static final String[] TRAIN_TYPES = {"ICE", "S-Bahn", "REX", "RJ", "IC", "CJX"};
+
+    // How many rows are inserted with one statement.
+    private static final int ROWS_PER_STATEMENT = 1000;
+
+    // How many rows are inserted per transaction.
+    private static final int ROWS_PER_COMMIT = 50_000;
+
+    // The seed all random values are derived from.
+    private final long seed;
+
+    // The number of stations, each in its own city.
+    private final int stations;
+
+    // The number of Platforms per station.
+    private final int platformsPerStation;
+
+    // The number of trains.
+    private final int trains;
+
+    // The number of Routes per train.
+    private final int routesPerTrain;
+
+    // When the first Routes depart.
+    private final LocalDateTime start;
+
+    /**
+     * Interface to fill the values of a row, called for one row after another.
+     */
+    @FunctionalInterface
+    private interface RowFiller {
+        /**
+         * Fill the values of the next row.
+         *
+         * @param row Receives the values, in the order of the columns.
+         * @return False if the row is not to be inserted.
+         */
+        boolean fill(Object[] row);
+    }
+
+    /**
+     * Constructor for the TimetableGenerator object.
+     *
+     * @param seed                The seed all random values are derived from.
+     * @param stations            The number of stations, at least 2.
+     * @param platformsPerStation The number of Platforms per station.
+     * @param trains              The number of trains.
+     * @param routesPerTrain      The number of Routes per train.
+     * @param start               When the first Routes depart.
+     */
+    public TimetableGenerator(long seed, int stations, int platformsPerStation, int trains, int routesPerTrain, LocalDateTime start) {
+        if (stations < 2 || platformsPerStation < 1 || trains < 0 || routesPerTrain < 0) {
+            throw new IllegalArgumentException("Need at least 2 stations with a Platform each");
+        }
+
+        this.seed = seed;
+        this.stations = stations;
+        this.platformsPerStation = platformsPerStation;
+        this.trains = trains;
+        this.routesPerTrain = routesPerTrain;
+        this.start = start;
+    }
+
+    /**
+     * Replace all data of the train system with the generated timetable.
+     * The tables must already exist.
+     *
+     * @param db     The Database to fill.
+     * @param dbName The name of the database to use.
+     * @throws SQLException If inserting fails, the tables are then left partially filled.
+     */
+    public void populate(Database db, String dbName) throws SQLException {
+        this.populate(db, dbName, 0, 1, ShardKey.TRAIN_NUMBER);
+    }
+
+    /**
+     * Replace all data of one shard of the train system with its part of the generated timetable.
+     * Every shard gets all stations, Platforms and trains, but only the Routes the shard key puts into it.
+     * Route-ids follow the auto increment offset of the shard, so they are unique over all shards.
+     * The tables must already exist.
+     *
+     * @param db       The Database to fill.
+     * @param dbName   The name of the database to use.
+     * @param shard    The index of the shard.
+     * @param shards   The number of shards.
+     * @param shardKey Decides which shard a Route belongs in.
+     * @throws SQLException If inserting fails, the tables are then left partially filled.
+     */
+    public void populate(Database db, String dbName, int shard, int shards, ShardKey shardKey) throws SQLException {
+        log.info("Generating timetable with seed " + this.seed + " for shard " + (shard + 1) + " of " + shards + ": "
+                + this.stations + " stations, " + this.trains + " trains, " + (long) this.trains * this.routesPerTrain + " routes");
+
+        long started = System.nanoTime();
+
+        db.use(dbName);
+
+        Connection connection = db.getConnection();
+        boolean autoCommit = connection.getAutoCommit();
+
+        try {
+            db.update("SET foreign_key_checks = 0, unique_checks = 0");
+
+            for (String table : new String[]{"route", "train_has_platform", "train", "traintype", "platform", "city", "station"}) {
+                db.update("TRUNCATE TABLE " + table);
+            }
+
+            connection.setAutoCommit(false);
+
+            this.insertStations(db);
+            this.insertCities(db);
+            this.insertPlatforms(db);
+            this.insertTrainTypes(db);
+            this.insertTrains(db);
+            this.insertTrainHasPlatform(db);
+            this.insertRoutes(db, shard, shards, shardKey);
+
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+
+            String errorMessage = "Failed generating timetable: " + e.getMessage();
+
+            log.error(errorMessage);
+
+            throw new SQLException(errorMessage, e.getSQLState(), e.getErrorCode(), e);
+        } finally {
+            connection.setAutoCommit(autoCommit);
+
+            db.update("SET foreign_key_checks = 1, unique_checks = 1");
+
+            db.recordWrite();
+        }
+
+        log.info("Generated timetable in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+    }
+
+    /**
+     * Insert the stations.
+     *
+     * @param db The Database to insert with, its Connection must not be in auto commit mode.
+     * @throws SQLException If inserting fails.
+     */
+    private void insertStations(Database db) throws SQLException {
+        int[] next = {1};
+
+        insert(db, "station", new String[]{"idstation", "name"}, this.stations, row -> {
+            row[0] = next[0];
+            row[1] = "station-" + next[0]++;
+
+            return true;
+        });
+    }
+
+    /**
+     * Insert the cities, one per station.
+     *
+     * @param db The Database to insert with, its Connection must not be in auto commit mode.
+     * @throws SQLException If inserting fails.
+     */
+    private void insertCities(Database db) throws SQLException {
+        int[] next = {1};
+
+        insert(db, "city", new String[]{"idcity", "name", "station_idstation"}, this.stations, row -> {
+            row[0] = next[0];
+            row[1] = "city-" + next[0];
+            row[2] = next[0]++;
+
+            return true;
+        });
+    }
+
+    /**
+     * Insert the Platforms, numbered from 1 in every station.
+     *
+     * @param db The Database to insert with, its Connection must not be in auto commit mode.
+     * @throws SQLException If inserting fails.
+     */
+    private void insertPlatforms(Database db) throws SQLException {
+        int[] next = {0};
+
+        insert(db, "platform", new String[]{"idplatform", "nr", "station_idstation"},
+                (long) this.stations * this.platformsPerStation, row -> {
+                    row[0] = next[0] + 1;
+                    row[1] = next[0] % this.platformsPerStation + 1;
+                    row[2] = next[0]++ / this.platformsPerStation + 1;
+
+                    return true;
+                });
+    }
+
+    /**
+     * Insert the train types.
+     *
+     * @param db The Database to insert with, its Connection must not be in auto commit mode.
+     * @throws SQLException If inserting fails.
+     */
+    private void insertTrainTypes(Database db) throws SQLException {
+        int[] next = {0};
+
+        insert(db, "traintype", new String[]{"idtraintype", "name"}, TRAIN_TYPES.length, row -> {
+            row[0] = next[0] + 1;
+            row[1] = TRAIN_TYPES[next[0]++];
+
+            return true;
+        });
+    }
+
+    /**
+     * Insert the trains with random types and acquisition dates.
+     *
+     * @param db The Database to insert with, its Connection must not be in auto commit mode.
+     * @throws SQLException If inserting fails.
+     */
+    private void insertTrains(Database db) throws SQLException {
+        SplittableRandom random = this.random(1);
+        LocalDate oldest = LocalDate.of(2000, 1, 1);
+        int[] next = {1};
+
+        insert(db, "train", new String[]{"nrtrain", "traintype_idtraintype", "acquisition"}, this.trains, row -> {
+            row[0] = next[0]++;
+            row[1] = random.nextInt(TRAIN_TYPES.length) + 1;
+            row[2] = Date.valueOf(oldest.plusDays(random.nextInt(24 * 365)));
+
+            return true;
+        });
+    }
+
+    /**
+     * Insert the two Platforms every train shuttles between, in two different stations.
+     *
+     * @param db The Database to insert with, its Connection must not be in auto commit mode.
+     * @throws SQLException If inserting fails.
+     */
+    private void insertTrainHasPlatform(Database db) throws SQLException {
+        SplittableRandom random = this.random(2);
+        int[] next = {0};
+        int[] arrivalPlatform = {0};
+
+        insert(db, "train_has_platform", new String[]{"train_nrtrain", "platform_idplatform", "start"},
+                2L * this.trains, row -> {
+                    int train = next[0] / 2 + 1;
+                    boolean first = next[0]++ % 2 == 0;
+                    int platform;
+
+                    if (first) {
+                        int from = random.nextInt(this.stations);
+                        int to = (from + 1 + random.nextInt(this.stations - 1)) % this.stations;
+
+                        platform = this.platformId(from, random.nextInt(this.platformsPerStation));
+                        arrivalPlatform[0] = this.platformId(to, random.nextInt(this.platformsPerStation));
+                    } else {
+                        platform = arrivalPlatform[0];
+                    }
+
+                    row[0] = train;
+                    row[1] = platform;
+                    row[2] = first ? 0 : 1;
+
+                    return true;
+                });
+    }
+
+    /**
+     * Insert the Routes, every train goes back and forth with a break at the end of each trip.
+     * All Routes are generated on every shard, so the timetable does not depend on the number of shards.
+     *
+     * @param db       The Database to insert with, its Connection must not be in auto commit mode.
+     * @param shard    The index of the shard, only its Routes are inserted.
+     * @param shards   The number of shards.
+     * @param shardKey Decides which shard a Route belongs in.
+     * @throws SQLException If inserting fails.
+     */
+    private void insertRoutes(Database db, int shard, int shards, ShardKey shardKey) throws SQLException {
+        SplittableRandom random = this.random(3);
+        long[] next = {0};
+        LocalDateTime[] time = {this.start};
+        long[] tripMinutes = {0};
+
+        insert(db, "route", new String[]{"idroute", "arrival", "departure", "train_nrtrain", "direction"},
+                (long) this.trains * this.routesPerTrain, row -> {
+                    long index = next[0]++;
+                    int train = (int) (index / this.routesPerTrain) + 1;
+                    int trip = (int) (index % this.routesPerTrain);
+
+                    // Every train starts at a random time of the first day and keeps its trip duration.
+                    if (trip == 0) {
+                        time[0] = this.start.plusMinutes(random.nextInt(24 * 60));
+                        tripMinutes[0] = 20 + random.nextInt(220);
+                    }
+
+                    LocalDateTime departure = time[0];
+                    LocalDateTime arrival = departure.plusMinutes(tripMinutes[0]);
+
+                    time[0] = arrival.plusMinutes(10 + random.nextInt(50));
+
+                    row[0] = index * shards + shard + 1;
+                    row[1] = Timestamp.valueOf(arrival);
+                    row[2] = Timestamp.valueOf(departure);
+                    row[3] = train;
+                    row[4] = trip % 2 == 0 ? 1 : 0;
+
+                    return shardKey.shardFor(train, (Timestamp) row[2], shards) == shard;
+                });
+    }
+
+    /**
+     * Get the id of a Platform.
+     *
+     * @param station The index of the station, starting at 0.
+     * @param nr      The index of the Platform in the station, starting at 0.
+     * @return The Platform-id.
+     */
+    private int platformId(int station, int nr) {
+        return station * this.platformsPerStation + nr + 1;
+    }
+
+    /**
+     * Get a random number generator for one table, so every table can be generated independently of the others.
+     *
+     * @param table A number identifying the table.
+     * @return The random number generator.
+     */
+    private SplittableRandom random(int table) {
+        return new SplittableRandom(this.seed * 31 + table);
+    }
+
+    /**
+     * Insert rows with multi-row INSERT statements, committing regularly.
+     *
+     * @param db      The Database to insert with, its Connection must not be in auto commit mode.
+     * @param table   The table to insert into.
+     * @param columns The columns to fill.
+     * @param rows    The number of rows to generate, rows the filler rejects are skipped.
+     * @param filler  Fills the values of each row.
+     * @throws SQLException If inserting fails.
+     */
+    private static void insert(Database db, String table, String[] columns, long rows, RowFiller filler) throws SQLException {
+        log.info("Generating " + rows + " rows for " + table);
+
+        Connection connection = db.getConnection();
+        String fullSql = insertSql(table, columns, ROWS_PER_STATEMENT);
+
+        Object[] row = new Object[columns.length];
+        Object[] pending = new Object[ROWS_PER_STATEMENT * columns.length];
+        int count = 0;
+        long inserted = 0;
+
+        try (PreparedStatement full = connection.prepareStatement(fullSql)) {
+            for (long generated = 0; generated < rows; generated++) {
+                if (!filler.fill(row)) {
+                    continue;
+                }
+
+                System.arraycopy(row, 0, pending, count++ * columns.length, columns.length);
+
+                if (count == ROWS_PER_STATEMENT) {
+                    execute(db, full, fullSql, pending, count * columns.length);
+
+                    inserted += count;
+                    count = 0;
+
+                    if (inserted % ROWS_PER_COMMIT == 0) {
+                        connection.commit();
+                    }
+                }
+            }
+        }
+
+        if (count > 0) {
+            String restSql = insertSql(table, columns, count);
+
+            try (PreparedStatement rest = connection.prepareStatement(restSql)) {
+                execute(db, rest, restSql, pending, count * columns.length);
+            }
+
+            inserted += count;
+        }
+
+        log.info("Inserted " + inserted + " rows into " + table);
+    }
+
+    /**
+     * Bind the values of several rows to a multi-row INSERT statement and execute it through the Database,
+     * so it is recorded like the other statements.
+     *
+     * @param db        The Database the statement was prepared on.
+     * @param statement The statement.
+     * @param sql       The SQL the statement was prepared with.
+     * @param values    The values of all rows, one row after another.
+     * @param count     The number of values to bind.
+     * @throws SQLException If inserting fails.
+     */
+    private static void execute(Database db, PreparedStatement statement, String sql, Object[] values, int count) throws SQLException {
+        db.executeBatch(statement, sql, Collections.singletonList(count == values.length ? values : Arrays.copyOf(values, count)));
+    }
+
+    /**
+     * Build an INSERT statement for several rows.
+     *
+     * @param table   The table to insert into.
+     * @param columns The columns to fill.
+     * @param rows    The number of rows.
+     * @return The statement with placeholders for every value.
+     */
+    private static String insertSql(String table, String[] columns, int rows) {
+        String placeholders = "(" + "?,".repeat(columns.length - 1) + "?)";
+        StringBuilder sql = new StringBuilder("INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES ");
+
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sql.append(',');
+            }
+
+            sql.append(placeholders);
+        }
+
+        return sql.toString();
+    }
+}
@@ -0,0 +1,426 @@
+package quest.flo;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Class that serves the Routes of a train system over HTTP.
+ * Every request is handled on its own virtual thread.
+ * <p>
+ * Endpoints:
+ * <ul>
+ *     <li>GET /routes - all Routes</li>
+ *     <li>GET /routes/{id} - a single Route</li>
+ *     <li>POST /routes - create a Route from a form or JSON body with trainNr, direction (f|b), departure and arrival,
+ *     409 if it conflicts with the timetable</li>
+ *     <li>GET /metrics - request counts and latencies per endpoint</li>
+ * </ul>
+ *
+ * @author Florian.WINDISCH
+ */
+public class TimetableServer {
+    // Logger for the TimetableServer-Class.
+    private static final Logger log = LogManager.getLogger(TimetableServer.class);
+
+    // The request methods the endpoints serve.
+    private static final Set<String> METHODS = Set.of("GET", "POST");
+
+    // The train system to serve.
+    private final Trains trains;
+
+    // The HTTP server.
+    private final HttpServer server;
+
+    // Runs every request on a new virtual thread.
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Metrics per endpoint.
+    private final Map<String, Metrics> metrics = new ConcurrentHashMap<>();
+
+    /**
+     * Request metrics of one endpoint.
+     */
+    private static class Metrics {
+        // Number of handled requests.
+        final LongAdder requests = new LongAdder();
+
+        // Number of requests answered with an error.
+        final LongAdder errors = new LongAdder();
+
+        // Sum of the time spent handling requests, in nanoseconds.
+        final LongAdder totalNanos = new LongAdder();
+
+        // The longest time spent handling a request, in nanoseconds.
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * Constructor for the TimetableServer object, does not start serving yet.
+     *
+     * @param trains The train system to serve.
+     * @param port   The port to listen on.
+     * @throws IOException If the port can not be bound.
+     */
+    public TimetableServer(Trains trains, int port) throws IOException {
+        this.trains = trains;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.setExecutor(this.executor);
+
+        this.server.createContext("/routes", exchange -> this.handle("routes", exchange));
+        this.server.createContext("/metrics", exchange -> this.handle("metrics", exchange));
+    }
+
+    /**
+     * Start serving requests.
+     */
+    public void start() {
+        log.info("Serving timetable on port " + this.server.getAddress().getPort());
+
+        this.server.start();
+    }
+
+    /**
+     * Stop serving requests, waiting up to a second for running requests to finish.
+     */
+    public void stop() {
+        log.info("Stopping timetable server");
+
+        this.server.stop(1);
+        this.executor.close();
+    }
+
+    /**
+     * Handle a request and record its metrics.
+     * Responses are sent with chunked encoding, so connections are kept alive without knowing the length up front.
+     *
+     * @param context  The name of the context the request was made to.
+     * @param exchange The request and response.
+     */
+    private void handle(String context, HttpExchange exchange) {
+        long start = System.nanoTime();
+        String method = exchange.getRequestMethod();
+        // Methods no endpoint serves share one bucket, so clients can not grow the metrics with made up methods.
+        String endpoint = (METHODS.contains(method) ? method : "OTHER") + " /" + context;
+        int status;
+
+        try {
+            status = switch (context) {
+                case "routes" -> this.handleRoutes(exchange);
+                case "metrics" -> this.handleMetrics(exchange);
+                default -> this.error(exchange, 404, "Not found");
+            };
+        } catch (Exception e) {
+            log.error("Failed handling " + endpoint + ": " + e.getMessage());
+
+            status = 500;
+
+            try {
+                this.error(exchange, 500, "Internal error");
+            } catch (IOException ignored) {
+                // The headers were already sent, the client sees the response break off.
+            }
+        } finally {
+            exchange.close();
+        }
+
+        long nanos = System.nanoTime() - start;
+        Metrics endpointMetrics = this.metrics.computeIfAbsent(endpoint, key -> new Metrics());
+
+        endpointMetrics.requests.increment();
+        endpointMetrics.totalNanos.add(nanos);
+        endpointMetrics.maxNanos.accumulate(nanos);
+
+        if (status >= 400) {
+            endpointMetrics.errors.increment();
+        }
+    }
+
+    /**
+     * Handle a request to /routes or /routes/{id}.
+     *
+     * @param exchange The request and response.
+     * @return The status code sent.
+     * @throws IOException  If sending the response fails.
+     * @throws SQLException If creating a Route fails for another reason than invalid input.
+     */
+    private int handleRoutes(HttpExchange exchange) throws IOException, SQLException {
+        String path = exchange.getRequestURI().getPath();
+        String rest;
+
+        if (path.equals("/routes")) {
+            rest = "";
+        } else if (path.startsWith("/routes/")) {
+            rest = path.substring("/routes/".length());
+        } else {
+            // The context also receives paths like /routesX.
+            return this.error(exchange, 404, "Not found: " + path);
+        }
+
+        if (rest.isEmpty() && exchange.getRequestMethod().equals("GET")) {
+            return this.listRoutes(exchange);
+        }
+
+        if (rest.isEmpty() && exchange.getRequestMethod().equals("POST")) {
+            return this.createRoute(exchange);
+        }
+
+        if (!rest.isEmpty() && exchange.getRequestMethod().equals("GET")) {
+            int routeId;
+
+            try {
+                routeId = Integer.parseInt(rest);
+            } catch (NumberFormatException e) {
+                return this.error(exchange, 400, "Invalid route id: " + rest);
+            }
+
+            return this.getRoute(exchange, routeId);
+        }
+
+        return this.error(exchange, 405, "Method not allowed");
+    }
+
+    /**
+     * Send all Routes.
+     *
+     * @param exchange The request and response.
+     * @return The status code sent.
+     * @throws IOException If sending the response fails.
+     */
+    private int listRoutes(HttpExchange exchange) throws IOException {
+        // The snapshot does not change while it is written, even if the Routes are refreshed meanwhile.
+        RouteStore routes = this.trains.getRouteStore();
+        JsonWriter json = this.beginJson(exchange, 200);
+
+        json.beginArray();
+
+        for (int i = 0; i < routes.size(); i++) {
+            writeRoute(json, routes.routeAt(i));
+        }
+
+        json.endArray();
+        json.flush();
+
+        return 200;
+    }
+
+    /**
+     * Send a single Route.
+     *
+     * @param exchange The request and response.
+     * @param routeId  The id of the requested Route.
+     * @return The status code sent.
+     * @throws IOException  If sending the response fails.
+     * @throws SQLException If loading a Route that is not in memory yet fails.
+     */
+    private int getRoute(HttpExchange exchange, int routeId) throws IOException, SQLException {
+        Route route = this.trains.getRoute(routeId);
+
+        if (route == null) {
+            return this.error(exchange, 404, "No route " + routeId);
+        }
+
+        JsonWriter json = this.beginJson(exchange, 200);
+
+        writeRoute(json, route);
+        json.flush();
+
+        return 200;
+    }
+
+    /**
+     * Create a Route from the request body and send it.
+     *
+     * @param exchange The request and response.
+     * @return The status code sent.
+     * @throws IOException  If reading the request or sending the response fails.
+     * @throws SQLException If inserting the Route fails for another reason than invalid input.
+     */
+    private int createRoute(HttpExchange exchange) throws IOException, SQLException {
+        Map<String, String> fields;
+
+        try (InputStream body = exchange.getRequestBody()) {
+            String content = new String(body.readAllBytes(), StandardCharsets.UTF_8).trim();
+
+            fields = content.startsWith("{") ? JsonReader.readObject(content) : parseForm(content);
+        } catch (IllegalArgumentException e) {
+            return this.error(exchange, 400, e.getMessage());
+        }
+
+        int trainNr;
+        boolean direction;
+        Timestamp departure;
+        Timestamp arrival;
+
+        try {
+            trainNr = Integer.parseInt(fields.getOrDefault("trainNr", ""));
+            direction = Trains.NewRoute.parseDirection(fields.getOrDefault("direction", ""));
+            departure = Trains.NewRoute.parseTimestamp(fields.getOrDefault("departure", ""));
+            arrival = Trains.NewRoute.parseTimestamp(fields.getOrDefault("arrival", ""));
+        } catch (IllegalArgumentException e) {
+            return this.error(exchange, 400, "Expected trainNr, direction (f|b), departure and arrival (yyyy-mm-dd hh:mm)");
+        }
+
+        Route route;
+
+        try {
+            route = this.trains.createRoute(trainNr, direction, departure, arrival);
+        } catch (RouteConflictException e) {
+            return this.error(exchange, 409, e.getMessage());
+        } catch (SQLException e) {
+            // Integrity constraint violation, e.g. an unknown train.
+            if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+                return this.error(exchange, 400, "Invalid route: " + e.getMessage());
+            }
+
+            throw e;
+        }
+
+        JsonWriter json = this.beginJson(exchange, 201);
+
+        writeRoute(json, route);
+        json.flush();
+
+        return 201;
+    }
+
+    /**
+     * Send the request metrics of all endpoints.
+     *
+     * @param exchange The request and response.
+     * @return The status code sent.
+     * @throws IOException If sending the response fails.
+     */
+    private int handleMetrics(HttpExchange exchange) throws IOException {
+        JsonWriter json = this.beginJson(exchange, 200);
+
+        json.beginObject();
+
+        for (Map.Entry<String, Metrics> entry : this.metrics.entrySet()) {
+            Metrics endpointMetrics = entry.getValue();
+            long requests = endpointMetrics.requests.sum();
+
+            json.name(entry.getKey()).beginObject()
+                    .name("requests").value(requests)
+                    .name("errors").value(endpointMetrics.errors.sum())
+                    .name("avgMillis").value(requests == 0 ? 0 : endpointMetrics.totalNanos.sum() / 1e6 / requests)
+                    .name("maxMillis").value(endpointMetrics.maxNanos.get() / 1e6)
+                    .endObject();
+        }
+
+        json.endObject();
+        json.flush();
+
+        return 200;
+    }
+
+    /**
+     * Send an error message.
+     *
+     * @param exchange The request and response.
+     * @param status   The status code.
+     * @param message  The error message.
+     * @return The status code sent.
+     * @throws IOException If sending the response fails.
+     */
+    private int error(HttpExchange exchange, int status, String message) throws IOException {
+        JsonWriter json = this.beginJson(exchange, status);
+
+        json.beginObject().name("error").value(message).endObject();
+        json.flush();
+
+        return status;
+    }
+
+    /**
+     * Send the response headers and return a writer for the JSON body.
+     *
+     * @param exchange The request and response.
+     * @param status   The status code.
+     * @return A writer for the body.
+     * @throws IOException If sending the headers fails.
+     */
+    private JsonWriter beginJson(HttpExchange exchange, int status) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, 0);
+
+        return new JsonWriter(new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Write a Route as JSON.
+     *
+     * @param json  The writer.
+     * @param route The Route.
+     * @throws IOException If writing fails.
+     */
+    private static void writeRoute(JsonWriter json, Route route) throws IOException {
+        json.beginObject()
+                .name("id").value(route.getId())
+                .name("trainNr").value(route.getTrainNr())
+                .name("trainType").value(route.getTrainType());
+
+        json.name("departure");
+        writePlatform(json, route.getDeparture());
+
+        json.name("arrival");
+        writePlatform(json, route.getArrival());
+
+        json.endObject();
+    }
+
+    /**
+     * Write a Platform as JSON.
+     *
+     * @param json     The writer.
+     * @param platform The Platform.
+     * @throws IOException If writing fails.
+     */
+    private static void writePlatform(JsonWriter json, Platform platform) throws IOException {
+        json.beginObject()
+                .name("platform").value(platform.getNr())
+                .name("station").value(platform.getStation())
+                .name("city").value(platform.getCity())
+                .name("time").value(platform.getTime() == null ? null : platform.getTime().toLocalDateTime().toString())
+                .endObject();
+    }
+
+    /**
+     * Parse a url encoded form.
+     *
+     * @param content The form.
+     * @return The fields of the form.
+     */
+    private static Map<String, String> parseForm(String content) {
+        Map<String, String> fields = new HashMap<>();
+
+        for (String pair : content.split("&")) {
+            int equals = pair.indexOf('=');
+
+            if (equals > 0) {
+                fields.put(
+                        URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8)
+                );
+            }
+        }
+
+        return fields;
+    }
+}
@@ -0,0 +1,278 @@
+package quest.flo;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class that keeps counts of the timetable up to date while the Routes change:
+ * departures per station and hour, and Routes per train type.
+ * Every change of a Route only adjusts the counts it affects, so reading a count is a single lookup.
+ * The counts can also be written to summary tables, only the counts that changed since the last write are written.
+ *
+ * @author Florian.WINDISCH
+ */
+public class TimetableStatistics implements RouteListener {
+    // Logger for the TimetableStatistics-Class.
+    private static final Logger log = LogManager.getLogger(TimetableStatistics.class);
+
+    // Counts Routes whose train type is unknown.
+    public static final String UNKNOWN_TYPE = "unknown";
+
+    // The number of departures by station and hour.
+    private final Map<StationHour, Integer> departures = new ConcurrentHashMap<>();
+
+    // The number of Routes by train type.
+    private final Map<String, Integer> trainTypes = new ConcurrentHashMap<>();
+
+    // Station hours whose count changed since the last write to the summary tables.
+    private final Set<StationHour> changedDepartures = ConcurrentHashMap.newKeySet();
+
+    // Train types whose count changed since the last write to the summary tables.
+    private final Set<String> changedTrainTypes = ConcurrentHashMap.newKeySet();
+
+    /**
+     * An hour at a station.
+     *
+     * @param stationId The id of the station.
+     * @param hour      The start of the hour.
+     */
+    public record StationHour(int stationId, LocalDateTime hour) {
+    }
+
+    /**
+     * Adjust the counts to a change of a Route.
+     *
+     * @param event The change.
+     */
+    @Override
+    public synchronized void onRouteEvent(RouteEvent event) {
+        if (event.previous() != null) {
+            this.count(event.previous(), -1);
+        }
+
+        if (event.current() != null) {
+            this.count(event.current(), 1);
+        }
+    }
+
+    /**
+     * Get the number of departures from a station within an hour.
+     *
+     * @param stationId The id of the station.
+     * @param hour      Any time within the hour.
+     * @return The number of departures.
+     */
+    public int getDepartures(int stationId, LocalDateTime hour) {
+        return this.departures.getOrDefault(new StationHour(stationId, hour.truncatedTo(ChronoUnit.HOURS)), 0);
+    }
+
+    /**
+     * Get the number of departures of all stations and hours.
+     *
+     * @return A copy of the counts, only hours with departures are included.
+     */
+    public Map<StationHour, Integer> getDepartures() {
+        return new HashMap<>(this.departures);
+    }
+
+    /**
+     * Get the number of Routes of a train type.
+     *
+     * @param trainType The name of the train type, or UNKNOWN_TYPE.
+     * @return The number of Routes.
+     */
+    public int getRoutes(String trainType) {
+        return this.trainTypes.getOrDefault(trainType, 0);
+    }
+
+    /**
+     * Get the number of Routes of all train types.
+     *
+     * @return A copy of the counts, only train types with Routes are included.
+     */
+    public Map<String, Integer> getRoutesByTrainType() {
+        return new HashMap<>(this.trainTypes);
+    }
+
+    /**
+     * Create the summary tables if they do not exist and empty them.
+     * All current counts are written with the next writeTables(), so counts left over from earlier runs are gone.
+     *
+     * @param db     The Database to create the tables in.
+     * @param dbName The name of the database to use.
+     * @throws SQLException If creating the tables fails.
+     */
+    public synchronized void createTables(Database db, String dbName) throws SQLException {
+        db.use(dbName);
+
+        db.createTable("departures_per_hour", new String[]{
+                "`station_idstation` INT NOT NULL",
+                "`hour` DATETIME NOT NULL",
+                "`departures` INT NOT NULL",
+                "PRIMARY KEY (`station_idstation`, `hour`)"
+        });
+
+        db.createTable("routes_per_traintype", new String[]{
+                "`traintype` VARCHAR(45) NOT NULL",
+                "`routes` INT NOT NULL",
+                "PRIMARY KEY (`traintype`)"
+        });
+
+        db.update("DELETE FROM departures_per_hour");
+        db.update("DELETE FROM routes_per_traintype");
+
+        this.changedDepartures.addAll(this.departures.keySet());
+        this.changedTrainTypes.addAll(this.trainTypes.keySet());
+    }
+
+    /**
+     * Write the counts that changed since the last write to the summary tables, with one batch per table.
+     * Counts that dropped to 0 are deleted. The tables must already exist, see createTables().
+     *
+     * @param db     The Database to write to.
+     * @param dbName The name of the database to use.
+     * @throws SQLException If writing fails, the counts are then written with the next call.
+     */
+    public void writeTables(Database db, String dbName) throws SQLException {
+        List<StationHour> hours = drain(this.changedDepartures);
+        List<String> types = drain(this.changedTrainTypes);
+
+        if (hours.isEmpty() && types.isEmpty()) {
+            return;
+        }
+
+        try {
+            db.use(dbName);
+
+            List<Object[]> upserts = new ArrayList<>();
+            List<Object[]> deletes = new ArrayList<>();
+
+            for (StationHour hour : hours) {
+                int count = this.departures.getOrDefault(hour, 0);
+                Timestamp start = Timestamp.valueOf(hour.hour());
+
+                if (count > 0) {
+                    upserts.add(new Object[]{hour.stationId(), start, count});
+                } else {
+                    deletes.add(new Object[]{hour.stationId(), start});
+                }
+            }
+
+            executeBatch(db, "INSERT INTO departures_per_hour (station_idstation, `hour`, departures) VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE departures = VALUES(departures)", upserts);
+            executeBatch(db, "DELETE FROM departures_per_hour WHERE station_idstation = ? AND `hour` = ?", deletes);
+
+            upserts.clear();
+            deletes.clear();
+
+            for (String type : types) {
+                int count = this.trainTypes.getOrDefault(type, 0);
+
+                if (count > 0) {
+                    upserts.add(new Object[]{type, count});
+                } else {
+                    deletes.add(new Object[]{type});
+                }
+            }
+
+            executeBatch(db, "INSERT INTO routes_per_traintype (traintype, routes) VALUES (?, ?) ON DUPLICATE KEY UPDATE routes = VALUES(routes)", upserts);
+            executeBatch(db, "DELETE FROM routes_per_traintype WHERE traintype = ?", deletes);
+        } catch (SQLException e) {
+            this.changedDepartures.addAll(hours);
+            this.changedTrainTypes.addAll(types);
+
+            String errorMessage = "Failed writing summary tables: " + e.getMessage();
+
+            log.error(errorMessage);
+
+            throw new SQLException(errorMessage, e.getSQLState(), e.getErrorCode(), e);
+        } finally {
+            db.recordWrite();
+        }
+
+        log.debug("Wrote " + hours.size() + " departure counts and " + types.size() + " train type counts");
+    }
+
+    /**
+     * Run a batch on the primary, nothing is run for an empty batch.
+     *
+     * @param db    The Database to run the batch on.
+     * @param sql   The statement.
+     * @param batch The values for the parameter placeholders, one array per row.
+     * @throws SQLException If the batch fails.
+     */
+    private static void executeBatch(Database db, String sql, List<Object[]> batch) throws SQLException {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try (PreparedStatement statement = db.prepareStatement(sql)) {
+            db.executeBatch(statement, sql, batch);
+        }
+    }
+
+    /**
+     * Add a Route to the counts or take it away.
+     *
+     * @param route The Route.
+     * @param delta 1 to add the Route, -1 to take it away.
+     */
+    private void count(Route route, int delta) {
+        Platform departure = route.getDeparture();
+
+        if (departure.getTime() != null) {
+            StationHour hour = new StationHour(
+                    departure.getStationId(), departure.getTime().toLocalDateTime().truncatedTo(ChronoUnit.HOURS)
+            );
+
+            adjust(this.departures, hour, delta);
+            this.changedDepartures.add(hour);
+        }
+
+        String type = route.getTrainType() == null ? UNKNOWN_TYPE : route.getTrainType();
+
+        adjust(this.trainTypes, type, delta);
+        this.changedTrainTypes.add(type);
+    }
+
+    /**
+     * Change a count, removing it once it reaches 0.
+     *
+     * @param counts The counts.
+     * @param key    The key of the count to change.
+     * @param delta  The amount to add.
+     * @param <K>    The type of the keys.
+     */
+    private static <K> void adjust(Map<K, Integer> counts, K key, int delta) {
+        counts.compute(key, (k, count) -> {
+            int updated = (count == null ? 0 : count) + delta;
+
+            return updated == 0 ? null : updated;
+        });
+    }
+
+    /**
+     * Take all elements out of a concurrently changed set.
+     *
+     * @param set The set.
+     * @param <T> The type of the elements.
+     * @return The elements that were taken out.
+     */
+    private static <T> List<T> drain(Set<T> set) {
+        List<T> drained = new ArrayList<>();
+
+        for (Iterator<T> iterator = set.iterator(); iterator.hasNext(); ) {
+            drained.add(iterator.next());
+            iterator.remove();
+        }
+
+        return drained;
+    }
+}
@@ -4,27 +4,153 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.sql.*;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
  * Class that creates a train system. Sets up the Database and can get the Routes.
  *
  * @author Florian.WINDISCH
  */
-public class Trains {
+public final class Trains {
     // Logger for the Trains-class.
     private static final Logger log = LogManager.getLogger(Trains.class);
 
-    // Database object to use in the system.
+    // Database object to use in the system, the first shard. Reference data is read from it.
     private final Database db;
 
+    // The Databases the Routes are spread over, each holds a full copy of the reference data.
+    private final List<Database> shards;
+
+    // Decides which shard a Route belongs in.
+    private final ShardKey shardKey;
+
     // The database to use for this system.
-    private final String dbName = "trains";
+    private final String dbName;
+
+    // Selects Routes together with their train type and both Platforms, so no query per Route is needed.
+    private static final String ROUTE_QUERY = "SELECT r.idroute as 'id', r.arrival as 'arrival', r.departure as 'departure', r.train_nrtrain as 'trainNr', tt.name as 'type', "
+            + "dp.idplatform as 'departureId', dp.nr as 'departureNr', ds.idstation as 'departureStationId', ds.name as 'departureStation', dc.name as 'departureCity', "
+            + "ap.idplatform as 'arrivalId', ap.nr as 'arrivalNr', ast.idstation as 'arrivalStationId', ast.name as 'arrivalStation', ac.name as 'arrivalCity' "
+            + "FROM route r "
+            + "LEFT JOIN train t ON t.nrtrain = r.train_nrtrain "
+            + "LEFT JOIN traintype tt ON tt.idtraintype = t.traintype_idtraintype "
+            + "LEFT JOIN train_has_platform dthp ON dthp.train_nrtrain = r.train_nrtrain AND dthp.start <> r.direction "
+            + "LEFT JOIN platform dp ON dp.idplatform = dthp.platform_idplatform "
+            + "LEFT JOIN station ds ON ds.idstation = dp.station_idstation "
+            + "LEFT JOIN city dc ON dc.station_idstation = ds.idstation "
+            + "LEFT JOIN train_has_platform athp ON athp.train_nrtrain = r.train_nrtrain AND athp.start = r.direction "
+            + "LEFT JOIN platform ap ON ap.idplatform = athp.platform_idplatform "
+            + "LEFT JOIN station ast ON ast.idstation = ap.station_idstation "
+            + "LEFT JOIN city ac ON ac.station_idstation = ast.idstation";
+
+    // The Routes the system currently knows about, kept column by column.
+    // Every refresh builds a new snapshot and replaces this one, readers never need a lock.
+    private volatile RouteStore routes = RouteStore.empty();
+
+    // Lets only one refresh or insert run at a time, so snapshots and events follow each other in order.
+    private final ReentrantLock refreshLock = new ReentrantLock();
+
+    // If the Routes were loaded at least once.
+    private volatile boolean loaded = false;
+
+    // If Routes were added without a refresh, so the snapshot misses them.
+    private volatile boolean stale = false;
+
+    // Refreshes the Routes in the background, created by refreshEvery().
+    private ScheduledExecutorService refresher;
+
+    // How many Routes are fetched from the database at once while streaming.
+    private int fetchSize = 1000;
+
+    // How many events are buffered per subscriber before publishing blocks.
+    private static final int EVENT_BUFFER = 1024;
+
+    // Listeners called synchronously for every change of a Route.
+    private final List<RouteListener> listeners = new CopyOnWriteArrayList<>();
+
+    // Publishes changes of Routes to asynchronous subscribers.
+    private final SubmissionPublisher<RouteEvent> publisher = new SubmissionPublisher<>(ForkJoinPool.commonPool(), EVENT_BUFFER);
+
+    // Knows when trains and Platforms are busy, to reject conflicting Routes.
+    private final ConflictChecker conflicts = new ConflictChecker(Duration.ofMinutes(3));
+
+    // The maximum number of trains whose Platforms are selected with one query.
+    private static final int IN_LIST_SIZE = 500;
+
+    // If new Routes are checked for conflicts before inserting them.
+    private boolean validateConflicts = true;
+
+    // Routes loaded one by one because they were missing from the snapshot, cleared with every refresh.
+    private final Map<Integer, Route> loadedRoutes = new ConcurrentHashMap<>();
+
+    // Ids of Routes that were not found in the database, with the time until which that is trusted (System.nanoTime()).
+    private final Map<Integer, Long> missingRoutes = new ConcurrentHashMap<>();
+
+    // Loads of single Routes that are running, so concurrent misses for the same id share one query.
+    private final Map<Integer, CompletableFuture<Route>> loadingRoutes = new ConcurrentHashMap<>();
+
+    // Counts the refreshes, so a Route loaded during a refresh is not cached after it.
+    private volatile long generation = 0;
+
+    // How long a Route that was not found is not looked up again, in nanoseconds.
+    private volatile long missingRouteTime = TimeUnit.SECONDS.toNanos(1);
+
+    // The number of missing Routes remembered before expired ones are dropped.
+    private static final int MISSING_ROUTES_LIMIT = 10_000;
+
+    // Collects reported delays and applies them in batches.
+    private final DelayFeed delays = new DelayFeed(this);
+
+    // Counts departures per station and hour and Routes per train type while the Routes change.
+    private final TimetableStatistics statistics = new TimetableStatistics();
+
+    // Writes the counts to the summary tables, created by writeSummaryTablesEvery().
+    private ScheduledExecutorService summaryWriter;
+
+    /**
+     * A Route that is to be inserted.
+     *
+     * @param trainNr   The number of the train to use.
+     * @param direction True if the train goes forwards, false if it is on a return trip.
+     * @param departure The departure time.
+     * @param arrival   The arrival time.
+     */
+    public record NewRoute(int trainNr, boolean direction, Timestamp departure, Timestamp arrival) {
+        /**
+         * Parse the direction of a Route.
+         *
+         * @param value f, forwards or true for forwards; b, backwards or false for backwards.
+         * @return True if the direction is forwards.
+         */
+        public static boolean parseDirection(String value) {
+            return switch (value.toLowerCase()) {
+                case "f", "forwards", "true" -> true;
+                case "b", "backwards", "false" -> false;
+                default -> throw new IllegalArgumentException("Invalid direction: " + value);
+            };
+        }
 
-    // List of Routes the system currently knows about.
-    private final Map<Integer, Route> routes = new HashMap<>();
+        /**
+         * Parse a timestamp in the format yyyy-mm-dd hh:mm, seconds are optional.
+         *
+         * @param value The timestamp, a T between date and time is accepted as well.
+         * @return The Timestamp.
+         */
+        public static Timestamp parseTimestamp(String value) {
+            String normalized = value.replace('T', ' ');
+
+            return Timestamp.valueOf(normalized.length() == 16 ? normalized + ":00" : normalized);
+        }
+    }
 
     /**
      * Constructor for Trains object.
@@ -33,98 +159,730 @@ public class Trains {
      * @throws SQLException If any of the queries or throw an error.
      */
     public Trains(Database db) throws SQLException {
-        log.info("Initializing train system!");
+        this(List.of(db), ShardKey.TRAIN_NUMBER, "trains");
+    }
 
-        this.db = db;
+    /**
+     * Constructor for a Trains object whose Routes are spread over several Databases.
+     * Every shard holds a full copy of the stations, Platforms and trains, so Routes can be read from each on its own.
+     * Each shard hands out Route-ids from its own residue class (auto increment offset), so ids stay unique.
+     *
+     * @param shards   The Databases to spread the Routes over.
+     * @param shardKey Decides which shard a Route belongs in.
+     * @param dbName   The database to use on every shard.
+     * @throws SQLException If any of the queries or throw an error.
+     */
+    public Trains(List<Database> shards, ShardKey shardKey, String dbName) throws SQLException {
+        log.info("Initializing train system with " + shards.size() + " shard(s)!");
+
+        this.shards = List.copyOf(shards);
+        this.shardKey = shardKey;
+        this.dbName = dbName;
+        this.db = this.shards.get(0);
+        this.listeners.add(this.conflicts);
+        this.listeners.add(this.statistics);
+
+        for (int i = 0; i < this.shards.size(); i++) {
+            this.setUp(this.shards.get(i), i);
+        }
+    }
 
+    /**
+     * Create the database and tables on a shard if they are missing.
+     *
+     * @param db    The shard.
+     * @param shard The index of the shard.
+     * @throws SQLException If any of the queries or throw an error.
+     */
+    private void setUp(Database db, int shard) throws SQLException {
+        if (this.shards.size() > 1) {
+            db.initSession("SET SESSION auto_increment_increment = " + this.shards.size() + ", auto_increment_offset = " + (shard + 1));
+        }
 
         // Check if the db exists
-        boolean dbExists;
+        boolean dbExists = db.queryPrimary(
+                "SELECT count(*) as 'dbExists' FROM `information_schema`.`schemata` WHERE `schema_name` = ?",
+                rs -> {
+                    rs.next();
 
-        try (PreparedStatement stmt = this.db.prepareStatement(
-                "SELECT count(*) as 'dbExists' FROM `information_schema`.`schemata` WHERE `schema_name` = '" + this.dbName + "'")) {
-            ResultSet rs = stmt.executeQuery();
-            rs.first();
-
-            dbExists = rs.getBoolean("dbExists");
-
-            rs.close();
-        }
+                    return rs.getBoolean("dbExists");
+                },
+                this.dbName
+        );
 
         // If the db does not exist create it.
         if (!dbExists) {
-            this.db.createDatabase(this.dbName);
+            db.createDatabase(this.dbName);
         }
 
-        this.db.use(this.dbName);
+        db.use(this.dbName);
 
 
         // Check if the tables exist!
-        int counter;
+        int counter = db.queryPrimary(
+                "SELECT count(*) as 'count' FROM `information_schema`.`tables` WHERE `table_schema` = ? AND `table_name` IN ('city', 'platform', 'route', 'station', 'train', 'traintype', 'train_has_platform')",
+                rs -> {
+                    rs.next();
 
-        try (PreparedStatement stmt = this.db.prepareStatement(
-                "SELECT count(*) as 'count' FROM `information_schema`.`tables` WHERE `table_schema` = '" + this.dbName + "' AND `table_name` IN ('city', 'platform', 'route', 'station', 'train', 'traintype', 'train_has_platform');")) {
-            ResultSet rs = stmt.executeQuery();
-            rs.first();
-
-            counter = rs.getInt("count");
-
-            rs.close();
-        }
+                    return rs.getInt("count");
+                },
+                this.dbName
+        );
 
         // If the amount of tables does not match the expected amount recreate all tables.
         if (counter != 7) {
             log.warn("Not enough tables, creating Tables!");
-            this.createTables();
-            this.insertInitialData();
+            this.createTables(db);
+            this.insertInitialData(db, shard);
+            db.recordWrite();
         }
     }
 
     /**
      * Get the current Routes from the database.
+     * The Routes are loaded into a new snapshot that replaces the current one at once,
+     * readers keep seeing the old snapshot until then and never see a partial refresh.
      *
      * @throws SQLException If querying for routes failed.
      */
     public void updateRoutes() throws SQLException {
-        this.db.use(this.dbName);
+        this.refreshLock.lock();
+
+        try {
+            this.refresh();
+        } finally {
+            this.refreshLock.unlock();
+        }
+    }
+
+    /**
+     * Get the current Routes from the database if they were never loaded or Routes were added since the last refresh.
+     *
+     * @throws SQLException If querying for routes failed.
+     */
+    public void updateRoutesIfStale() throws SQLException {
+        this.refreshLock.lock();
+
+        try {
+            this.ensureLoaded();
+        } finally {
+            this.refreshLock.unlock();
+        }
+    }
+
+    /**
+     * Refresh the Routes in the background until close() is called.
+     * Failed refreshes are logged, the current snapshot is kept until the next one succeeds.
+     *
+     * @param interval The time between two refreshes.
+     */
+    public synchronized void refreshEvery(Duration interval) {
+        if (this.refresher != null) {
+            this.refresher.shutdownNow();
+        }
+
+        this.refresher = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("routes-refresher").daemon().factory());
+        this.refresher.scheduleWithFixedDelay(() -> {
+            try {
+                this.updateRoutes();
+            } catch (SQLException e) {
+                log.error("Failed refreshing routes: " + e.getMessage());
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Load a new snapshot of the Routes, publish it and send the changes to the listeners.
+     * Must be called with the refreshLock held.
+     *
+     * @throws SQLException If querying for routes failed.
+     */
+    private void refresh() throws SQLException {
+        RefreshEvent refreshEvent = new RefreshEvent();
+
+        refreshEvent.begin();
+
+        RouteStore loaded = this.loadRoutes();
+        RouteStore previous = this.routes;
+
+        List<RouteEvent> events = new ArrayList<>();
+
+        // Both stores are ordered by id, so they are compared in one pass. Route objects are only created for changes.
+        int i = 0;
+        int j = 0;
+
+        while (i < previous.size() || j < loaded.size()) {
+            int comparison = i == previous.size() ? 1
+                    : j == loaded.size() ? -1
+                    : Integer.compare(previous.idAt(i), loaded.idAt(j));
+
+            if (comparison < 0) {
+                events.add(RouteEvent.removed(previous.routeAt(i++)));
+            } else if (comparison > 0) {
+                events.add(RouteEvent.added(loaded.routeAt(j++)));
+            } else {
+                if (!previous.sameRoute(i, loaded, j)) {
+                    events.add(RouteEvent.changed(previous.routeAt(i), loaded.routeAt(j)));
+                }
+
+                i++;
+                j++;
+            }
+        }
+
+        this.routes = loaded;
+        this.loaded = true;
+        this.stale = false;
+        this.generation++;
+        this.loadedRoutes.clear();
+        this.missingRoutes.clear();
 
-        try (PreparedStatement statement = this.db.prepareStatement(
-                "SELECT idroute, arrival, departure, train_nrtrain,direction FROM route")) {
+        log.info("Updated routes: " + loaded.size() + " routes, " + events.size() + " changes");
 
-            ResultSet results = statement.executeQuery();
+        this.publish(events);
 
-            while (results.next()) {
-                int routeId = results.getInt("idroute");
-                this.routes.put(routeId, new Route(
-                        this.db,
-                        this.dbName,
-                        routeId,
-                        results.getTimestamp("departure"),
-                        results.getTimestamp("arrival"),
-                        results.getInt("train_nrtrain"),
-                        results.getBoolean("direction")
-                ));
+        refreshEvent.end();
+
+        if (refreshEvent.shouldCommit()) {
+            refreshEvent.shards = this.shards.size();
+            refreshEvent.routes = loaded.size();
+
+            for (RouteEvent event : events) {
+                switch (event.type()) {
+                    case ADDED -> refreshEvent.added++;
+                    case CHANGED -> refreshEvent.changed++;
+                    case REMOVED -> refreshEvent.removed++;
+                }
             }
+
+            refreshEvent.commit();
+        }
+    }
+
+    /**
+     * Get the counts of the timetable, they follow every change of the Routes.
+     *
+     * @return The counts.
+     */
+    public TimetableStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    /**
+     * Write the counts of the timetable to summary tables in the first shard, creating them if needed.
+     * Only the counts that changed are written, once per interval in the background until close() is called.
+     *
+     * @param interval The time between two writes.
+     * @throws SQLException If creating the summary tables fails.
+     */
+    public synchronized void writeSummaryTablesEvery(Duration interval) throws SQLException {
+        this.statistics.createTables(this.db, this.dbName);
+
+        if (this.summaryWriter != null) {
+            this.summaryWriter.shutdownNow();
         }
+
+        this.summaryWriter = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("summary-writer").daemon().factory());
+        this.summaryWriter.scheduleWithFixedDelay(() -> {
+            try {
+                this.statistics.writeTables(this.db, this.dbName);
+            } catch (SQLException e) {
+                log.error("Failed writing summary tables: " + e.getMessage());
+            }
+        }, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Report the expected times of a delayed Route.
+     * Reports for the same Route are coalesced, the latest times are applied to the Routes in memory
+     * and written to the database within a fraction of a second, without reloading the Routes.
+     *
+     * @param routeId   The id of the Route.
+     * @param departure The expected departure time, including the delay.
+     * @param arrival   The expected arrival time, including the delay.
+     * @throws IllegalStateException If the train system was closed.
+     */
+    public void reportDelay(int routeId, Timestamp departure, Timestamp arrival) {
+        this.delays.report(routeId, departure, arrival);
+    }
+
+    /**
+     * Set how long reported delays are collected before they are applied.
+     *
+     * @param window The window, longer windows coalesce more reports.
+     * @throws IllegalStateException If a delay was reported already or the train system was closed.
+     */
+    public void setDelayWindow(Duration window) {
+        this.delays.setWindow(window);
+    }
+
+    /**
+     * Apply all reported delays now, instead of waiting for the window to end.
+     *
+     * @throws SQLException If writing the delays fails.
+     */
+    public void flushDelays() throws SQLException {
+        this.delays.flush();
+    }
+
+    /**
+     * Replace the times of Routes in memory, then write them to the database.
+     * Listeners get the changed Routes right away, before the times are written.
+     *
+     * @param times The new departure and arrival time by Route-id, in epoch milliseconds.
+     * @throws SQLException If writing the times fails, they are then only changed in memory.
+     */
+    void applyTimes(Map<Integer, long[]> times) throws SQLException {
+        this.refreshLock.lock();
+
+        try {
+            RouteStore previous = this.routes;
+            RouteStore updated = previous.withTimes(times);
+            List<RouteEvent> events = new ArrayList<>();
+
+            for (int routeId : times.keySet()) {
+                int index = updated.indexOf(routeId);
+
+                if (index >= 0 && !previous.sameRoute(index, updated, index)) {
+                    events.add(RouteEvent.changed(previous.routeAt(index), updated.routeAt(index)));
+                }
+            }
+
+            this.routes = updated;
+            this.generation++;
+            this.loadedRoutes.keySet().removeAll(times.keySet());
+            this.publish(events);
+
+            try {
+                this.writeTimes(times);
+            } finally {
+                // A Route loaded on its own while the times were written may have read the old times.
+                this.generation++;
+                this.loadedRoutes.keySet().removeAll(times.keySet());
+            }
+        } finally {
+            this.refreshLock.unlock();
+        }
+    }
+
+    /**
+     * Write the times of Routes to the database, with one batch of updates per shard.
+     *
+     * @param times The new departure and arrival time by Route-id, in epoch milliseconds.
+     * @throws SQLException If writing the times fails.
+     */
+    private void writeTimes(Map<Integer, long[]> times) throws SQLException {
+        Map<Integer, List<Integer>> routesByShard = new HashMap<>();
+
+        for (int routeId : times.keySet()) {
+            routesByShard.computeIfAbsent(this.shardOf(routeId), shard -> new ArrayList<>()).add(routeId);
+        }
+
+        for (Map.Entry<Integer, List<Integer>> entry : routesByShard.entrySet()) {
+            Database shard = this.shards.get(entry.getKey());
+
+            try {
+                shard.use(this.dbName);
+
+                String sql = "UPDATE route SET departure = ?, arrival = ? WHERE idroute = ?";
+                List<Object[]> batch = new ArrayList<>();
+
+                for (int routeId : entry.getValue()) {
+                    long[] time = times.get(routeId);
+
+                    batch.add(new Object[]{new Timestamp(time[0]), new Timestamp(time[1]), routeId});
+                }
+
+                try (PreparedStatement statement = shard.prepareStatement(sql)) {
+                    shard.executeBatch(statement, sql, batch);
+                }
+            } catch (SQLException e) {
+                String errorMessage = "Failed writing delays: " + e.getMessage();
+
+                log.error(errorMessage);
+
+                throw new SQLException(errorMessage, e.getSQLState(), e.getErrorCode(), e);
+            } finally {
+                shard.recordWrite();
+            }
+        }
+    }
+
+    /**
+     * Get the shard a Route is in.
+     * Every shard hands out Route-ids from its own residue class, so the shard follows from the id alone.
+     *
+     * @param routeId The id of the Route.
+     * @return The index of the shard.
+     */
+    private int shardOf(int routeId) {
+        return Math.floorMod(routeId - 1, this.shards.size());
+    }
+
+    /**
+     * Hand changes of Routes to the listeners and subscribers.
+     * If a subscriber's buffer is full this blocks until it catches up, so slow subscribers slow down refreshes
+     * instead of losing events.
+     *
+     * @param events The changes, in the order they happened.
+     */
+    private void publish(List<RouteEvent> events) {
+        for (RouteEvent event : events) {
+            for (RouteListener listener : this.listeners) {
+                listener.onRouteEvent(event);
+            }
+
+            if (this.publisher.hasSubscribers()) {
+                this.publisher.submit(event);
+            }
+        }
+    }
+
+    /**
+     * Add a listener that is called synchronously for every change of a Route.
+     *
+     * @param listener The listener.
+     */
+    public void addRouteListener(RouteListener listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Remove a listener added with addRouteListener().
+     *
+     * @param listener The listener.
+     */
+    public void removeRouteListener(RouteListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Subscribe to changes of Routes.
+     * Events are delivered asynchronously, each subscriber has a bounded buffer and requests events at its own pace.
+     *
+     * @param subscriber The subscriber.
+     */
+    public void subscribe(Flow.Subscriber<? super RouteEvent> subscriber) {
+        this.publisher.subscribe(subscriber);
+    }
+
+    /**
+     * Get the publisher of changes of Routes, for example to hand it to a reactive library.
+     *
+     * @return The publisher.
+     */
+    public Flow.Publisher<RouteEvent> getRoutePublisher() {
+        return this.publisher;
+    }
+
+    /**
+     * Stop refreshing, write the delays and counts still pending and stop publishing changes of Routes, subscribers are completed.
+     */
+    public synchronized void close() {
+        if (this.refresher != null) {
+            this.refresher.shutdownNow();
+            this.refresher = null;
+        }
+
+        try {
+            this.delays.close();
+        } catch (SQLException e) {
+            log.error("Failed writing the last delays: " + e.getMessage());
+        }
+
+        if (this.summaryWriter != null) {
+            this.summaryWriter.shutdown();
+
+            try {
+                if (this.summaryWriter.awaitTermination(10, TimeUnit.SECONDS)) {
+                    this.statistics.writeTables(this.db, this.dbName);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (SQLException e) {
+                log.error("Failed writing summary tables: " + e.getMessage());
+            }
+
+            this.summaryWriter = null;
+        }
+
+        this.publisher.close();
+    }
+
+    /**
+     * Stream all Routes from the database, handing each one to the consumer as soon as it arrives.
+     * The Routes are not kept, so memory use does not depend on the amount of Routes in the database.
+     *
+     * @param consumer Receives every Route.
+     * @return The number of Routes streamed.
+     * @throws SQLException If querying for routes failed.
+     */
+    public long streamRoutes(Consumer<Route> consumer) throws SQLException {
+        long streamed = 0;
+
+        for (Database shard : this.shards) {
+            streamed += this.streamRoutes(shard, consumer);
+        }
+
+        return streamed;
+    }
+
+    /**
+     * Stream the Routes of one shard.
+     *
+     * @param shard    The shard.
+     * @param consumer Receives every Route.
+     * @return The number of Routes streamed.
+     * @throws SQLException If querying for routes failed.
+     */
+    private long streamRoutes(Database shard, Consumer<Route> consumer) throws SQLException {
+        shard.use(this.dbName);
+
+        return shard.stream(ROUTE_QUERY, this.fetchSize, row -> consumer.accept(this.readRoute(row)));
+    }
+
+    /**
+     * Load the Routes of all shards, querying the shards in parallel.
+     *
+     * @return The Routes by id.
+     * @throws SQLException If querying any of the shards failed.
+     */
+    private RouteStore loadRoutes() throws SQLException {
+        RouteStore.Builder loaded = new RouteStore.Builder();
+
+        if (this.shards.size() == 1) {
+            this.streamRoutes(this.db, loaded::add);
+
+            return loaded.build();
+        }
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<RouteStore.Builder>> results = new ArrayList<>();
+
+            for (Database shard : this.shards) {
+                results.add(executor.submit(() -> {
+                    RouteStore.Builder shardRoutes = new RouteStore.Builder();
+
+                    this.streamRoutes(shard, shardRoutes::add);
+
+                    return shardRoutes;
+                }));
+            }
+
+            for (Future<RouteStore.Builder> result : results) {
+                loaded.addAll(result.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new SQLException("Interrupted while loading routes", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+
+            throw new SQLException("Failed loading routes: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        return loaded.build();
+    }
+
+    /**
+     * Create a Route from the current row of a ROUTE_QUERY result.
+     *
+     * @param row The results, positioned on the row to read.
+     * @return The Route.
+     * @throws SQLException If reading the row fails.
+     */
+    private Route readRoute(ResultSet row) throws SQLException {
+        RouteHydrationEvent event = new RouteHydrationEvent();
+
+        event.begin();
+
+        Route route = new Route(
+                row.getInt("id"),
+                row.getInt("trainNr"),
+                row.getString("type"),
+                new Platform(
+                        row.getInt("departureId"),
+                        row.getInt("departureNr"),
+                        row.getInt("departureStationId"),
+                        row.getString("departureStation"),
+                        row.getString("departureCity"),
+                        row.getTimestamp("departure")
+                ),
+                new Platform(
+                        row.getInt("arrivalId"),
+                        row.getInt("arrivalNr"),
+                        row.getInt("arrivalStationId"),
+                        row.getString("arrivalStation"),
+                        row.getString("arrivalCity"),
+                        row.getTimestamp("arrival")
+                )
+        );
+
+        event.end();
+
+        if (event.shouldCommit()) {
+            event.routeId = route.getId();
+            event.commit();
+        }
+
+        return route;
+    }
+
+    /**
+     * Set how many Routes are fetched from the database at once while streaming.
+     * Larger values mean less round trips, smaller values less memory.
+     *
+     * @param fetchSize The number of Routes per fetch.
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
     }
 
     /**
      * Getter for the Routes in the object.
+     * The Route objects are created while the Map is read, use getRouteStore() to scan many Routes.
+     * The Map is a view of the current snapshot, it does not change when the Routes are refreshed.
      *
-     * @return An array of Routes, not fresh from the database.
+     * @return A read-only Map of the Routes by id, not fresh from the database.
      */
     public Map<Integer, Route> getRoutes() {
+        return this.routes.asMap();
+    }
+
+    /**
+     * Get the Routes in their compact column by column form.
+     * The snapshot never changes, so it can be read without locking while the Routes are refreshed.
+     *
+     * @return The Routes, not fresh from the database.
+     */
+    public RouteStore getRouteStore() {
         return this.routes;
     }
 
     /**
      * Get a specific Route from the Routes.
+     * A Route that is not known yet, for example because it was inserted since the last refresh, is loaded on its own.
+     * Concurrent lookups of the same missing Route share one query, and a Route that does not exist
+     * is not looked up again for a short time.
      *
      * @param routeId The id of the Route to get.
-     * @return The Route that was requested.
+     * @return The Route that was requested, null if it does not exist.
+     * @throws SQLException If loading the Route fails.
+     */
+    public Route getRoute(Integer routeId) throws SQLException {
+        Route route = this.routes.get(routeId);
+
+        if (route == null) {
+            route = this.loadedRoutes.get(routeId);
+        }
+
+        if (route != null) {
+            return route;
+        }
+
+        Long missingUntil = this.missingRoutes.get(routeId);
+
+        if (missingUntil != null && System.nanoTime() - missingUntil < 0) {
+            return null;
+        }
+
+        CompletableFuture<Route> loading = new CompletableFuture<>();
+        CompletableFuture<Route> running = this.loadingRoutes.putIfAbsent(routeId, loading);
+
+        if (running != null) {
+            return join(running);
+        }
+
+        try {
+            long generation = this.generation;
+            Route loaded = this.loadRoute(routeId);
+
+            // A refresh that ran meanwhile might already know better, so the result is only kept if there was none.
+            if (loaded != null) {
+                this.loadedRoutes.put(routeId, loaded);
+            } else {
+                this.rememberMissing(routeId);
+            }
+
+            if (generation != this.generation) {
+                this.loadedRoutes.remove(routeId, loaded);
+                this.missingRoutes.remove(routeId);
+            }
+
+            loading.complete(loaded);
+
+            return loaded;
+        } catch (SQLException | RuntimeException e) {
+            loading.completeExceptionally(e);
+
+            throw e;
+        } finally {
+            this.loadingRoutes.remove(routeId, loading);
+        }
+    }
+
+    /**
+     * Set how long a Route that was not found in the database is not looked up again.
+     *
+     * @param time The time, 0 to look up every time.
+     */
+    public void setMissingRouteTime(Duration time) {
+        this.missingRouteTime = time.toNanos();
+    }
+
+    /**
+     * Load a single Route from its shard, with its train type and Platforms.
+     * Reads from the primary, since the Route is likely new and might not have reached the replicas yet.
+     *
+     * @param routeId The id of the Route.
+     * @return The Route, null if it does not exist.
+     * @throws SQLException If querying for the Route failed.
      */
-    public Route getRoute(Integer routeId) {
-        return this.routes.get(routeId);
+    private Route loadRoute(int routeId) throws SQLException {
+        log.debug("Loading route " + routeId + " on its own");
+
+        return this.shards.get(this.shardOf(routeId)).queryPrimary(
+                ROUTE_QUERY + " WHERE r.idroute = ?",
+                rs -> rs.next() ? this.readRoute(rs) : null,
+                routeId
+        );
+    }
+
+    /**
+     * Remember that a Route does not exist, dropping expired entries once there are too many.
+     *
+     * @param routeId The id of the Route.
+     */
+    private void rememberMissing(int routeId) {
+        long now = System.nanoTime();
+
+        if (this.missingRoutes.size() >= MISSING_ROUTES_LIMIT) {
+            this.missingRoutes.values().removeIf(until -> now - until >= 0);
+        }
+
+        this.missingRoutes.put(routeId, now + this.missingRouteTime);
+    }
+
+    /**
+     * Wait for a load of a single Route that another thread started.
+     *
+     * @param loading The running load.
+     * @return The Route, null if it does not exist.
+     * @throws SQLException If the load failed.
+     */
+    private static Route join(CompletableFuture<Route> loading) throws SQLException {
+        try {
+            return loading.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+
+            throw e;
+        }
     }
 
     /**
@@ -140,31 +898,400 @@ public class Trains {
         Boolean direction = this.chooseDirection(platforms, scan);
         Timestamp departure = this.chooseTimestamp(true, scan);
         Timestamp arrival = this.chooseTimestamp(false, scan);
-        int insertedRoute;
 
-        try (PreparedStatement statement = this.db.getConnection().prepareStatement(
-                "INSERT INTO route (arrival, departure, direction, train_nrtrain) VALUES (?, ?, ?, ?)",
-                Statement.RETURN_GENERATED_KEYS
-        )) {
-            statement.setTimestamp(1, arrival);
-            statement.setTimestamp(2, departure);
-            statement.setBoolean(3, direction);
-            statement.setInt(4, trainNr);
+        return this.createRoute(trainNr, direction, departure, arrival);
+    }
+
+    /**
+     * Insert a new Route into the Database and then return the resulting Route.
+     *
+     * @param trainNr   The number of the train to use.
+     * @param direction True if the train goes forwards, false if it is on a return trip.
+     * @param departure The departure time.
+     * @param arrival   The arrival time.
+     * @return The new Route that was inserted.
+     * @throws RouteConflictException If the Route conflicts with the timetable.
+     * @throws SQLException           If there was an issue inserting into the Database, for example for an unknown train.
+     */
+    public Route createRoute(int trainNr, boolean direction, Timestamp departure, Timestamp arrival) throws SQLException {
+        // Checking for conflicts, inserting and refreshing must not interleave with another insert.
+        this.refreshLock.lock();
+
+        try {
+            return this.insertRoute(trainNr, direction, departure, arrival);
+        } finally {
+            this.refreshLock.unlock();
+        }
+    }
+
+    /**
+     * Insert several new Routes and then return the resulting Routes.
+     * All Routes are validated first: unknown trains and conflicts, with the timetable and with each other,
+     * reject the whole list before anything is written.
+     * The Routes are inserted with one batch per shard, in one transaction per shard, and the Routes are refreshed once.
+     * If inserting into a shard still fails, the Routes already inserted into other shards are deleted again.
+     * Should deleting them fail as well, they stay and the error says so.
+     *
+     * @param newRoutes The Routes to insert.
+     * @return The inserted Routes, in the order they were given.
+     * @throws RouteConflictException If any of the Routes conflicts, none are inserted then.
+     * @throws SQLException           If a train is unknown or there was an issue inserting into the Database.
+     */
+    public List<Route> createRoutes(List<NewRoute> newRoutes) throws SQLException {
+        if (newRoutes.isEmpty()) {
+            return List.of();
+        }
+
+        this.refreshLock.lock();
+
+        try {
+            int[] ids = this.insertAll(newRoutes);
+
+            this.refresh();
+
+            List<Route> created = new ArrayList<>(ids.length);
+
+            for (int id : ids) {
+                created.add(this.routes.get(id));
+            }
+
+            return created;
+        } finally {
+            this.refreshLock.unlock();
+        }
+    }
+
+    /**
+     * Insert several new Routes like createRoutes(), but without refreshing the Routes afterwards.
+     * The new Routes are in the snapshot after the next refresh, for example by updateRoutesIfStale().
+     * Conflict checks of later inserts refresh first, so they still see these Routes.
+     *
+     * @param newRoutes The Routes to insert.
+     * @return The ids of the inserted Routes, in the order they were given.
+     * @throws RouteConflictException If any of the Routes conflicts, none are inserted then.
+     * @throws SQLException           If a train is unknown or there was an issue inserting into the Database.
+     */
+    public int[] addRoutes(List<NewRoute> newRoutes) throws SQLException {
+        if (newRoutes.isEmpty()) {
+            return new int[0];
+        }
+
+        this.refreshLock.lock();
+
+        try {
+            return this.insertAll(newRoutes);
+        } finally {
+            this.refreshLock.unlock();
+        }
+    }
+
+    /**
+     * Validate several new Routes and insert them with one batch per shard, without refreshing the Routes.
+     * Must be called with the refreshLock held.
+     *
+     * @param newRoutes The Routes to insert.
+     * @return The ids of the inserted Routes, in the order they were given.
+     * @throws RouteConflictException If any of the Routes conflicts, none are inserted then.
+     * @throws SQLException           If a train is unknown or there was an issue inserting into the Database.
+     */
+    private int[] insertAll(List<NewRoute> newRoutes) throws SQLException {
+        this.checkRoutes(newRoutes);
+
+        Map<Integer, List<Integer>> routesByShard = new HashMap<>();
+
+        for (int i = 0; i < newRoutes.size(); i++) {
+            NewRoute route = newRoutes.get(i);
+
+            routesByShard.computeIfAbsent(this.shardKey.shardFor(route.trainNr(), route.departure(), this.shards.size()), shard -> new ArrayList<>()).add(i);
+        }
+
+        int[] ids = new int[newRoutes.size()];
+        Map<Integer, List<Integer>> inserted = new HashMap<>();
+
+        for (Map.Entry<Integer, List<Integer>> entry : routesByShard.entrySet()) {
+            try {
+                this.insertRoutes(this.shards.get(entry.getKey()), newRoutes, entry.getValue(), ids);
+            } catch (SQLException e) {
+                this.undoInserts(inserted, ids, e);
+
+                throw e;
+            }
+
+            inserted.put(entry.getKey(), entry.getValue());
+            this.stale = true;
+        }
+
+        log.info("Created " + ids.length + " routes");
 
-            statement.executeUpdate();
+        return ids;
+    }
+
+    /**
+     * Validate new Routes before inserting them: their trains must be known, and, if enabled,
+     * they must not conflict with the timetable or with each other.
+     * The Platforms are selected with one query for all trains.
+     * Must be called with the refreshLock held.
+     *
+     * @param newRoutes The Routes to check.
+     * @throws RouteConflictException If any of the Routes conflicts.
+     * @throws SQLException           If a train or its Platforms are unknown, or loading the Routes or Platforms fails.
+     */
+    private void checkRoutes(List<NewRoute> newRoutes) throws SQLException {
+        Map<Integer, Platform[]> platforms = this.trainPlatforms(newRoutes.stream().map(NewRoute::trainNr).distinct().toList());
+        List<Route> candidates = new ArrayList<>();
+        List<Integer> unknown = new ArrayList<>();
+
+        for (NewRoute route : newRoutes) {
+            Route candidate = candidateRoute(platforms.get(route.trainNr()), route);
+
+            if (candidate == null) {
+                unknown.add(route.trainNr());
+            } else {
+                candidates.add(candidate);
+            }
+        }
+
+        if (!unknown.isEmpty()) {
+            String errorMessage = "Unknown trains or trains without platforms: " + unknown;
+
+            log.warn(errorMessage);
+
+            // Reported like the violated foreign key the insert would run into.
+            throw new SQLException(errorMessage, "23000");
+        }
+
+        if (!this.validateConflicts) {
+            return;
+        }
+
+        this.ensureLoaded();
+
+        List<ConflictChecker.Conflict> found = this.conflicts.check(candidates);
+
+        if (!found.isEmpty()) {
+            String errorMessage = (newRoutes.size() == 1 ? "Route conflicts" : "Routes conflict") + " with the timetable: " + found;
+
+            log.warn(errorMessage);
+
+            throw new RouteConflictException(errorMessage, found);
+        }
+    }
+
+    /**
+     * Insert new Routes into one shard, in a single transaction.
+     * Uses a connection of its own, so statements other threads run on the shard meanwhile are not part of the transaction.
+     *
+     * @param shard     The shard.
+     * @param newRoutes All new Routes.
+     * @param indexes   The indexes of the Routes that belong in this shard.
+     * @param ids       Receives the generated ids, at the index of each Route.
+     * @throws SQLException If inserting fails, none of the Routes of this shard are then inserted.
+     */
+    private void insertRoutes(Database shard, List<NewRoute> newRoutes, List<Integer> indexes, int[] ids) throws SQLException {
+        try (Connection connection = shard.openConnection(this.dbName)) {
+            connection.setAutoCommit(false);
+
+            String sql = "INSERT INTO route (arrival, departure, direction, train_nrtrain) VALUES (?, ?, ?, ?)";
+            List<Object[]> batch = new ArrayList<>();
+
+            for (int index : indexes) {
+                NewRoute route = newRoutes.get(index);
+
+                batch.add(new Object[]{route.arrival(), route.departure(), route.direction(), route.trainNr()});
+            }
+
+            try (PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                shard.executeBatch(statement, sql, batch);
+
+                try (ResultSet keys = statement.getGeneratedKeys()) {
+                    for (int index : indexes) {
+                        keys.next();
 
-            try (ResultSet rs = statement.getGeneratedKeys()) {
-                rs.first();
+                        ids[index] = keys.getInt(1);
+                    }
+                }
 
-                insertedRoute = rs.getInt(1);
+                connection.commit();
+            } catch (SQLException e) {
+                try {
+                    connection.rollback();
+                } catch (SQLException rollbackException) {
+                    e.addSuppressed(rollbackException);
+                }
+
+                throw e;
+            }
+        } catch (SQLException e) {
+            String errorMessage = "Failed inserting routes: " + e.getMessage();
+
+            log.error(errorMessage);
+
+            throw new SQLException(errorMessage, e.getSQLState(), e.getErrorCode(), e);
+        } finally {
+            shard.recordWrite();
+        }
+    }
+
+    /**
+     * Delete Routes that were already inserted into some shards after inserting into another shard failed.
+     * Failures are added to the original error, the Routes stay then.
+     *
+     * @param inserted The indexes of the inserted Routes, by shard.
+     * @param ids      The generated ids, at the index of each Route.
+     * @param cause    The error that made inserting fail.
+     */
+    private void undoInserts(Map<Integer, List<Integer>> inserted, int[] ids, SQLException cause) {
+        for (Map.Entry<Integer, List<Integer>> entry : inserted.entrySet()) {
+            Database shard = this.shards.get(entry.getKey());
+            List<Integer> routeIds = entry.getValue().stream().map(index -> ids[index]).toList();
+
+            try {
+                shard.use(this.dbName);
+
+                for (int routeId : routeIds) {
+                    shard.update("DELETE FROM route WHERE idroute = ?", routeId);
+                }
+
+                log.warn("Deleted routes " + routeIds + " again from shard " + (entry.getKey() + 1));
+            } catch (SQLException e) {
+                log.error("Failed deleting routes " + routeIds + " again from shard " + (entry.getKey() + 1) + ": " + e.getMessage());
+
+                cause.addSuppressed(e);
             }
         }
+    }
+
+    /**
+     * Validate a new Route, insert it and refresh the Routes.
+     * Must be called with the refreshLock held.
+     *
+     * @param trainNr   The number of the train to use.
+     * @param direction True if the train goes forwards, false if it is on a return trip.
+     * @param departure The departure time.
+     * @param arrival   The arrival time.
+     * @return The new Route that was inserted.
+     * @throws SQLException If there was an issue inserting into the Database, for example for an unknown train.
+     */
+    private Route insertRoute(int trainNr, boolean direction, Timestamp departure, Timestamp arrival) throws SQLException {
+        this.checkRoutes(List.of(new NewRoute(trainNr, direction, departure, arrival)));
 
-        this.updateRoutes();
+        Database shard = this.shards.get(this.shardKey.shardFor(trainNr, departure, this.shards.size()));
+
+        shard.use(this.dbName);
+
+        // The insert is recorded as a write, so the new Route is read back from the primary.
+        int insertedRoute = shard.insert(
+                "INSERT INTO route (arrival, departure, direction, train_nrtrain) VALUES (?, ?, ?, ?)",
+                arrival, departure, direction, trainNr
+        );
+
+        this.refresh();
 
         return this.routes.get(insertedRoute);
     }
 
+    /**
+     * Load the Routes if that did not happen yet or Routes were added since the last refresh,
+     * the conflict checker only knows the Routes that were loaded.
+     * Must be called with the refreshLock held.
+     *
+     * @throws SQLException If loading the Routes fails.
+     */
+    private void ensureLoaded() throws SQLException {
+        if (!this.loaded || this.stale) {
+            this.refresh();
+        }
+    }
+
+    /**
+     * Select the Platforms of trains, in chunks of IN_LIST_SIZE trains per query.
+     *
+     * @param trainNrs The numbers of the trains, without duplicates.
+     * @return The Platforms by train number, indexed by the start column (0 for false, 1 for true), without times.
+     *         Trains without Platforms are missing.
+     * @throws SQLException If selecting the Platforms fails.
+     */
+    private Map<Integer, Platform[]> trainPlatforms(List<Integer> trainNrs) throws SQLException {
+        Map<Integer, Platform[]> platforms = new HashMap<>();
+
+        this.db.use(this.dbName);
+
+        for (int from = 0; from < trainNrs.size(); from += IN_LIST_SIZE) {
+            List<Integer> chunk = trainNrs.subList(from, Math.min(trainNrs.size(), from + IN_LIST_SIZE));
+
+            this.db.query(
+                    "SELECT t.train_nrtrain as 'train', p.idplatform as 'id', p.nr as 'nr', s.idstation as 'stationId', s.name as 'station', c.name as 'city', t.start as 'start' FROM train_has_platform t LEFT JOIN platform p on t.platform_idplatform = p.idplatform LEFT JOIN station s on p.station_idstation = s.idstation LEFT JOIN city c on s.idstation = c.station_idstation WHERE t.train_nrtrain IN ("
+                            + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")",
+                    rs -> {
+                        while (rs.next()) {
+                            platforms.computeIfAbsent(rs.getInt("train"), train -> new Platform[2])[rs.getBoolean("start") ? 1 : 0] = new Platform(
+                                    rs.getInt("id"),
+                                    rs.getInt("nr"),
+                                    rs.getInt("stationId"),
+                                    rs.getString("station"),
+                                    rs.getString("city"),
+                                    null
+                            );
+                        }
+
+                        return null;
+                    },
+                    chunk.toArray()
+            );
+        }
+
+        return platforms;
+    }
+
+    /**
+     * Build a Route that is not inserted yet, to check it for conflicts.
+     *
+     * @param platforms The Platforms of its train, as selected by trainPlatforms(), may be null.
+     * @param route     The new Route.
+     * @return The Route with id 0, null if the train or its Platforms are unknown.
+     */
+    private static Route candidateRoute(Platform[] platforms, NewRoute route) {
+        if (platforms == null || platforms[0] == null || platforms[1] == null) {
+            return null;
+        }
+
+        // The start column is paired with the direction like in the stored Routes.
+        Platform departure = route.direction() ? platforms[0] : platforms[1];
+        Platform arrival = route.direction() ? platforms[1] : platforms[0];
+
+        return new Route(0, route.trainNr(), null, withTime(departure, route.departure()), withTime(arrival, route.arrival()));
+    }
+
+    /**
+     * Copy a Platform with another time.
+     *
+     * @param platform The Platform.
+     * @param time     The arrival/departure time.
+     * @return The copy.
+     */
+    private static Platform withTime(Platform platform, Timestamp time) {
+        return new Platform(platform.getId(), platform.getNr(), platform.getStationId(), platform.getStation(), platform.getCity(), time);
+    }
+
+    /**
+     * Get the checker that knows when trains and Platforms are busy.
+     * Follows the Routes the system knows about, for example to scan them for conflicts.
+     *
+     * @return The ConflictChecker.
+     */
+    public ConflictChecker getConflictChecker() {
+        return this.conflicts;
+    }
+
+    /**
+     * Set if new Routes are checked for conflicts with the known Routes before inserting them.
+     *
+     * @param validateConflicts True to reject conflicting Routes.
+     */
+    public void setValidateConflicts(boolean validateConflicts) {
+        this.validateConflicts = validateConflicts;
+    }
+
     /**
      * Ask the user to enter a timestamp for the Route.
      *
@@ -178,11 +1305,16 @@ public class Trains {
         do {
             System.out.println("Please input a " + (start ? "departure" : "arrival") + " timestamp (yyyy-mm-dd hh:mm):");
 
+            String timeString = scan.nextLine();
+
+            // The rest of the line the previous answer was on.
+            while (timeString.isBlank() && scan.hasNextLine()) {
+                timeString = scan.nextLine();
+            }
+
             try {
-                Thread.sleep(1000);
-                String timeString = scan.nextLine() + ":00";
-                timestamp = Timestamp.valueOf(timeString);
-            } catch (IllegalArgumentException | InterruptedException ignored) {
+                timestamp = Timestamp.valueOf(timeString.trim() + ":00");
+            } catch (IllegalArgumentException ignored) {
                 System.out.println("Erroneous timestamp entered, try again!");
             }
         } while (timestamp == null);
@@ -245,24 +1377,24 @@ public class Trains {
     private Map<Integer, String[]> getPlatforms(Integer trainNr) throws SQLException {
         this.db.use(this.dbName);
 
-        Map<Integer, String[]> platforms = new HashMap<>();
+        return this.db.query(
+                "SELECT p.nr as 'nr', s.name as 'station', c.name as 'city', t.start as 'start' FROM train_has_platform t LEFT JOIN platform p on t.platform_idplatform = p.idplatform LEFT JOIN station s on p.station_idstation = s.idstation LEFT JOIN city c on s.idstation = c.station_idstation WHERE t.train_nrtrain = ?",
+                rs -> {
+                    Map<Integer, String[]> platforms = new HashMap<>();
 
-        try (PreparedStatement statement = this.db.prepareStatement(
-                "SELECT p.nr as 'nr', s.name as 'station', c.name as 'city', t.start as 'start' FROM train_has_platform t LEFT JOIN platform p on t.platform_idplatform = p.idplatform LEFT JOIN station s on p.station_idstation = s.idstation LEFT JOIN city c on s.idstation = c.station_idstation WHERE t.train_nrtrain = ?")) {
-            statement.setInt(1, trainNr);
-            ResultSet rs = statement.executeQuery();
+                    while (rs.next()) {
+                        int nr = rs.getInt("nr");
+                        String[] details = {
+                                rs.getString("station") + " " + nr + " " + rs.getString("city"), rs.getString("start")
+                        };
 
-            while (rs.next()) {
-                int nr = rs.getInt("nr");
-                String[] details = {
-                        rs.getString("station") + " " + nr + " " + rs.getString("city"), rs.getString("start")
-                };
+                        platforms.put(nr, details);
+                    }
 
-                platforms.put(nr, details);
-            }
-        }
-
-        return platforms;
+                    return platforms;
+                },
+                trainNr
+        );
     }
 
     /**
@@ -301,80 +1433,81 @@ public class Trains {
     private Map<Integer, String> getTrains() throws SQLException {
         this.db.use(this.dbName);
 
-        try (PreparedStatement statement = this.db.prepareStatement(
-                "SELECT t.nrtrain as 'trainNr', tt.name as 'name' FROM train t LEFT JOIN traintype tt ON tt.idtraintype = t.traintype_idtraintype")) {
-            ResultSet rs = statement.executeQuery();
+        return this.db.query(
+                "SELECT t.nrtrain as 'trainNr', tt.name as 'name' FROM train t LEFT JOIN traintype tt ON tt.idtraintype = t.traintype_idtraintype",
+                rs -> {
+                    Map<Integer, String> trains = new HashMap<>();
 
-            Map<Integer, String> trains = new HashMap<>();
+                    while (rs.next()) {
+                        trains.put(rs.getInt("trainNr"), rs.getString("name"));
+                    }
 
-            while (rs.next()) {
-                trains.put(rs.getInt("trainNr"), rs.getString("name"));
-            }
-
-            return trains;
-        }
+                    return trains;
+                }
+        );
     }
 
     /**
      * Create the tables for the train system.
      *
+     * @param db The Database to create the tables in.
      * @throws SQLException If any of the creation statements fail.
      */
-    private void createTables() throws SQLException {
-        this.db.use(this.dbName);
+    private void createTables(Database db) throws SQLException {
+        db.use(this.dbName);
 
         try {
-            this.db.createTable("station", new String[]{
+            db.createTable("station", new String[]{
                     "`idstation` INT NOT NULL AUTO_INCREMENT",
                     "`name` VARCHAR(45) NOT NULL",
                     "PRIMARY KEY (`idstation`)"
             });
 
-            this.db.createTable("city", new String[]{
+            db.createTable("city", new String[]{
                     "`idcity` INT NOT NULL AUTO_INCREMENT",
                     "`name` VARCHAR(45) NOT NULL",
                     "`station_idstation` INT NOT NULL",
                     "PRIMARY KEY (`idcity`)",
                     "INDEX `fk_city_station1_idx` (`station_idstation` ASC)",
-                    "CONSTRAINT `fk_city_station1` FOREIGN KEY (`station_idstation`) REFERENCES `trains`.`station` (`idstation`) ON DELETE NO ACTION ON UPDATE NO ACTION"
+                    "CONSTRAINT `fk_city_station1` FOREIGN KEY (`station_idstation`) REFERENCES `" + this.dbName + "`.`station` (`idstation`) ON DELETE NO ACTION ON UPDATE NO ACTION"
             });
 
-            this.db.createTable("platform", new String[]{
+            db.createTable("platform", new String[]{
                     "`idplatform` INT NOT NULL AUTO_INCREMENT",
                     "`nr` VARCHAR(45) NOT NULL",
                     "`station_idstation` INT NOT NULL",
                     "PRIMARY KEY (`idplatform`)",
                     "INDEX `fk_platform_station1_idx` (`station_idstation` ASC)",
-                    "CONSTRAINT `fk_platform_station1` FOREIGN KEY (`station_idstation`) REFERENCES `trains`.`station` (`idstation`) ON DELETE NO ACTION ON UPDATE NO ACTION"
+                    "CONSTRAINT `fk_platform_station1` FOREIGN KEY (`station_idstation`) REFERENCES `" + this.dbName + "`.`station` (`idstation`) ON DELETE NO ACTION ON UPDATE NO ACTION"
             });
 
-            this.db.createTable("traintype", new String[]{
+            db.createTable("traintype", new String[]{
                     "`idtraintype` INT NOT NULL AUTO_INCREMENT",
                     "`name` VARCHAR(45) NOT NULL",
                     "PRIMARY KEY (`idtraintype`)"
             });
 
-            this.db.createTable("train", new String[]{
+            db.createTable("train", new String[]{
                     "`nrtrain` INT NOT NULL AUTO_INCREMENT",
                     "`traintype_idtraintype` INT NOT NULL",
                     "`acquisition` DATE NOT NULL",
                     "PRIMARY KEY (`nrtrain`)",
                     "INDEX `fk_train_traintype_idx` (`traintype_idtraintype` ASC)",
-                    "CONSTRAINT `fk_train_traintype` FOREIGN KEY (`traintype_idtraintype`) REFERENCES `trains`.`traintype` (`idtraintype`) ON DELETE NO ACTION ON UPDATE NO ACTION "
+                    "CONSTRAINT `fk_train_traintype` FOREIGN KEY (`traintype_idtraintype`) REFERENCES `" + this.dbName + "`.`traintype` (`idtraintype`) ON DELETE NO ACTION ON UPDATE NO ACTION "
             });
 
-            this.db.createTable("train_has_platform", new String[]{
+            db.createTable("train_has_platform", new String[]{
                     "`train_nrtrain` INT NOT NULL",
                     "`platform_idplatform` INT NOT NULL",
                     "`start` TINYINT NOT NULL DEFAULT 0",
                     "PRIMARY KEY (`train_nrtrain`, `platform_idplatform`)",
                     "INDEX `fk_train_has_platform_platform1_idx` (`platform_idplatform` ASC)",
                     "INDEX `fk_train_has_platform_train1_idx` (`train_nrtrain` ASC)",
-                    "CONSTRAINT `fk_train_has_platform_train1` FOREIGN KEY (`train_nrtrain`) REFERENCES `trains`.`train` (`nrtrain`) ON DELETE NO ACTION ON UPDATE NO ACTION",
-                    "CONSTRAINT `fk_train_has_platform_platform1` FOREIGN KEY (`platform_idplatform`) REFERENCES `trains`.`platform` (`idplatform`) ON DELETE NO ACTION ON UPDATE NO ACTION"
+                    "CONSTRAINT `fk_train_has_platform_train1` FOREIGN KEY (`train_nrtrain`) REFERENCES `" + this.dbName + "`.`train` (`nrtrain`) ON DELETE NO ACTION ON UPDATE NO ACTION",
+                    "CONSTRAINT `fk_train_has_platform_platform1` FOREIGN KEY (`platform_idplatform`) REFERENCES `" + this.dbName + "`.`platform` (`idplatform`) ON DELETE NO ACTION ON UPDATE NO ACTION"
             });
 
-            this.db.createTable("route", new String[]{
+            db.createTable("route", new String[]{
                     "`idroute` INT NOT NULL AUTO_INCREMENT",
                     "`arrival` TIMESTAMP(6) NOT NULL DEFAULT NOW()",
                     "`departure` TIMESTAMP(6) NOT NULL DEFAULT NOW()",
@@ -382,39 +1515,56 @@ public class Trains {
                     "`direction` TINYINT NOT NULL DEFAULT 0",
                     "PRIMARY KEY (`idroute`)",
                     "INDEX `fk_route_train1_idx` (`train_nrtrain` ASC)",
-                    "CONSTRAINT `fk_route_train1` FOREIGN KEY (`train_nrtrain`) REFERENCES `trains`.`train` (`nrtrain`) ON DELETE NO ACTION ON UPDATE NO ACTION"
+                    "CONSTRAINT `fk_route_train1` FOREIGN KEY (`train_nrtrain`) REFERENCES `" + this.dbName + "`.`train` (`nrtrain`) ON DELETE NO ACTION ON UPDATE NO ACTION"
             });
         } catch (SQLException e) {
             String errorMessage = "Failed creating tables: " + e.getMessage();
             log.error(errorMessage);
-            throw new SQLException(errorMessage);
+            throw new SQLException(errorMessage, e.getSQLState(), e.getErrorCode(), e);
+        }
+    }
+
+    /**
+     * Replace all data of the train system with a generated timetable, for example to load test it.
+     * Every shard is filled with its part of the timetable, with Route-ids from its own residue class.
+     * The known Routes are not refreshed, call updateRoutes() or streamRoutes() afterwards.
+     *
+     * @param generator Generates the timetable.
+     * @throws SQLException If inserting the timetable fails.
+     */
+    public void populate(TimetableGenerator generator) throws SQLException {
+        for (int i = 0; i < this.shards.size(); i++) {
+            generator.populate(this.shards.get(i), this.dbName, i, this.shards.size(), this.shardKey);
         }
     }
 
     /**
      * Insert the initial data for the train system.
      *
+     * @param db    The Database to create the data in.
+     * @param shard The index of the Database among the shards, only the Routes belonging in it are inserted.
      * @throws SQLException If inserting the initial data failed.
      */
-    private void insertInitialData() throws SQLException {
-        this.db.use(this.dbName);
-
-        this.insertStations();
-        this.insertCities();
-        this.insertPlatforms();
-        this.insertTrainTypes();
-        this.insertTrains();
-        this.insertTrainHasPlatform();
-        this.insertRoutes();
+    private void insertInitialData(Database db, int shard) throws SQLException {
+        db.use(this.dbName);
+
+        this.insertStations(db);
+        this.insertCities(db);
+        this.insertPlatforms(db);
+        this.insertTrainTypes(db);
+        this.insertTrains(db);
+        this.insertTrainHasPlatform(db);
+        this.insertRoutes(db, shard);
     }
 
     /**
      * Insert the stations.
      *
+     * @param db The Database to create the data in.
      * @throws SQLException If inserting the stations fails.
      */
-    private void insertStations() throws SQLException {
-        try (PreparedStatement statement = this.db.prepareStatement(
+    private void insertStations(Database db) throws SQLException {
+        try (PreparedStatement statement = db.prepareStatement(
                 "INSERT INTO station (idstation, name) VALUES (?, ?)")) {
             Map<Integer, String> stations = new HashMap<>() {{
                 put(1, "hbf-salzburg");
@@ -436,10 +1586,11 @@ public class Trains {
     /**
      * Insert the cities.
      *
+     * @param db The Database to create the data in.
      * @throws SQLException If inserting the cities fails.
      */
-    private void insertCities() throws SQLException {
-        try (PreparedStatement statement = this.db.prepareStatement(
+    private void insertCities(Database db) throws SQLException {
+        try (PreparedStatement statement = db.prepareStatement(
                 "INSERT INTO city (idcity, name, station_idstation) VALUES (?, ?, ?)")) {
 
             Map<Integer, String> cities = new HashMap<>() {{
@@ -463,10 +1614,11 @@ public class Trains {
     /**
      * Insert the platforms.
      *
+     * @param db The Database to create the data in.
      * @throws SQLException If inserting the platforms fails.
      */
-    private void insertPlatforms() throws SQLException {
-        try (PreparedStatement statement = this.db.prepareStatement(
+    private void insertPlatforms(Database db) throws SQLException {
+        try (PreparedStatement statement = db.prepareStatement(
                 "INSERT INTO platform (idplatform, nr, station_idstation) VALUES (?, ?, ?)")) {
 
             Map<Integer, Integer[]> platforms = new HashMap<>() {{
@@ -494,10 +1646,11 @@ public class Trains {
     /**
      * Insert the train-types.
      *
+     * @param db The Database to create the data in.
      * @throws SQLException If inserting the train-types fails.
      */
-    private void insertTrainTypes() throws SQLException {
-        try (PreparedStatement statement = this.db.prepareStatement(
+    private void insertTrainTypes(Database db) throws SQLException {
+        try (PreparedStatement statement = db.prepareStatement(
                 "INSERT INTO traintype (idtraintype, name) VALUES (?, ?)")) {
 
             Map<Integer, String> trainTypes = new HashMap<>() {{
@@ -520,10 +1673,11 @@ public class Trains {
     /**
      * Insert the trains.
      *
+     * @param db The Database to create the data in.
      * @throws SQLException If inserting the trains fails.
      */
-    private void insertTrains() throws SQLException {
-        try (PreparedStatement statement = this.db.prepareStatement(
+    private void insertTrains(Database db) throws SQLException {
+        try (PreparedStatement statement = db.prepareStatement(
                 "INSERT INTO train (nrtrain, traintype_idtraintype, acquisition) VALUES (?, ?, ?)")) {
 
             Map<Integer, Integer> trainsWithType = new HashMap<>() {{
@@ -553,10 +1707,11 @@ public class Trains {
     /**
      * Insert the platform-train-relations.
      *
+     * @param db The Database to create the data in.
      * @throws SQLException If inserting the platform-train-relations fails.
      */
-    private void insertTrainHasPlatform() throws SQLException {
-        try (PreparedStatement statement = this.db.prepareStatement(
+    private void insertTrainHasPlatform(Database db) throws SQLException {
+        try (PreparedStatement statement = db.prepareStatement(
                 "INSERT INTO train_has_platform (train_nrtrain, platform_idplatform, start) VALUES (?, ?, ?)")) {
 
             Integer[][] trainHasPlatform = {
@@ -577,11 +1732,14 @@ public class Trains {
 
     /**
      * Insert the routes.
+     * With several shards the ids are chosen to fit the shard's auto increment offset, so ids stay unique.
      *
+     * @param db    The Database to create the data in.
+     * @param shard The index of the Database among the shards, only the Routes belonging in it are inserted.
      * @throws SQLException If inserting the routes fails.
      */
-    private void insertRoutes() throws SQLException {
-        try (PreparedStatement statement = this.db.prepareStatement(
+    private void insertRoutes(Database db, int shard) throws SQLException {
+        try (PreparedStatement statement = db.prepareStatement(
                 "INSERT INTO route (idroute, arrival, departure, train_nrtrain, direction) VALUES (?, ?, ?, ?, ?)")) {
 
             Map<Integer, Timestamp[]> routeTimes = new HashMap<>() {{
@@ -618,7 +1776,11 @@ public class Trains {
                 Timestamp[] times = routeTimes.get(route);
                 Integer[] relations = routeRelations.get(route);
 
-                statement.setInt(1, route);
+                if (this.shardKey.shardFor(relations[0], times[1], this.shards.size()) != shard) {
+                    continue;
+                }
+
+                statement.setInt(1, (route - 1) * this.shards.size() + shard + 1);
                 statement.setTimestamp(2, times[0]);
                 statement.setTimestamp(3, times[1]);
                 statement.setInt(4, relations[0]);
@@ -638,7 +1800,9 @@ public class Trains {
      */
     @Override
     public String toString() {
-        if (this.routes.isEmpty()) {
+        RouteStore routes = this.routes;
+
+        if (routes.isEmpty()) {
             String warningMessage = "Currently no Routes in the Train-System, please update the Routes!";
             log.warn(warningMessage);
             return warningMessage;
@@ -646,9 +1810,7 @@ public class Trains {
 
         StringBuilder routesStringBuilder = new StringBuilder();
 
-        for (int route : this.routes.keySet()) {
-            routesStringBuilder.append(this.routes.get(route));
-        }
+        routes.forEach(routesStringBuilder::append);
 
         return routesStringBuilder.toString();
     }
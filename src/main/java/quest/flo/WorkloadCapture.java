@@ -0,0 +1,612 @@
+package quest.flo;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Class that records executed statements with their parameters and timing to an append-only file,
+ * to replay the workload later with WorkloadReplay.
+ * <p>
+ * Every capture appends a session to the file, so one file can collect several runs. The format is binary:
+ * <ul>
+ *     <li>'H' epochMillis - starts a session, the times of its statements are relative to it</li>
+ *     <li>'S' id sql - defines the text of a statement once per session, later records only use the id</li>
+ *     <li>'E' offsetNanos durationNanos id flags rows paramCount params... - one executed statement</li>
+ * </ul>
+ * Numbers are written as variable length integers, so a typical record takes about 20 bytes.
+ * <p>
+ * The records are buffered and written to the file every second, so a killed process loses at most the last second.
+ * It can leave an incomplete record at the end of the file, which is cut off when the file is opened again,
+ * before the next session is appended. Readers skip it as well.
+ *
+ * @author Florian.WINDISCH
+ */
+public final class WorkloadCapture implements Closeable {
+    // Logger for the WorkloadCapture-Class.
+    private static final Logger log = LogManager.getLogger(WorkloadCapture.class);
+
+    // Starts a session.
+    private static final int SESSION = 'H';
+
+    // Defines the text of a statement.
+    private static final int STATEMENT = 'S';
+
+    // One executed statement.
+    private static final int EXECUTION = 'E';
+
+    // Flag of a statement that failed.
+    private static final int FAILED = 1;
+
+    // How often the buffered records are written to the file, in milliseconds.
+    private static final long FLUSH_INTERVAL = 1000;
+
+    // The tags of the parameter types.
+    private static final int NULL = 0;
+    private static final int INT = 1;
+    private static final int LONG = 2;
+    private static final int TRUE = 3;
+    private static final int FALSE = 4;
+    private static final int DOUBLE = 5;
+    private static final int STRING = 6;
+    private static final int TIMESTAMP = 7;
+
+    // The file the statements are appended to.
+    private final Path file;
+
+    // Buffers the records before they are written to the file.
+    private final DataOutputStream out;
+
+    // When the session started (System.nanoTime()), the times of the statements are relative to it.
+    private final long sessionStart;
+
+    // The ids of the statements defined in this session.
+    private final Map<String, Integer> statementIds = new HashMap<>();
+
+    // Guards the stream, a lock instead of synchronized, so virtual threads waiting for it are not pinned.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Writes the buffered records to the file regularly.
+    private final ScheduledExecutorService flusher;
+
+    // The number of statements recorded.
+    private long recorded = 0;
+
+    // If the capture was closed or writing failed, no more statements are recorded then.
+    private volatile boolean closed = false;
+
+    /**
+     * A recorded statement, as read back from the file.
+     *
+     * @param time   When the statement started, in nanoseconds since the start of the first session.
+     *               Later sessions continue where the one before ended.
+     * @param nanos  How long the statement took.
+     * @param sql    The statement.
+     * @param params The values of its parameter placeholders.
+     * @param rows   The number of rows read or changed, negative if unknown.
+     * @param failed If the statement failed.
+     */
+    record Recorded(long time, long nanos, String sql, Object[] params, long rows, boolean failed) {
+    }
+
+    /**
+     * Constructor for the WorkloadCapture object.
+     *
+     * @param file The file to append the statements to, created if it does not exist.
+     * @throws IOException If opening the file fails or it is no capture file.
+     */
+    public WorkloadCapture(Path file) throws IOException {
+        this.file = file;
+
+        cutIncompleteRecord(file);
+
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND), 1 << 16
+        ));
+        this.sessionStart = System.nanoTime();
+
+        this.out.writeByte(SESSION);
+        this.out.writeLong(System.currentTimeMillis());
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("workload-capture").daemon().factory());
+        this.flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+
+        log.info("Capturing statements to " + file);
+    }
+
+    /**
+     * Record an executed statement.
+     * Never throws, if writing fails the capture is stopped and the problem is logged.
+     *
+     * @param sql     The statement.
+     * @param params  The values of its parameter placeholders.
+     * @param started When the statement was started (System.nanoTime()).
+     * @param nanos   How long the statement took.
+     * @param rows    The number of rows read or changed, negative if unknown.
+     * @param failed  If the statement failed.
+     */
+    public void record(String sql, Object[] params, long started, long nanos, long rows, boolean failed) {
+        if (this.closed) {
+            return;
+        }
+
+        this.lock.lock();
+
+        try {
+            if (this.closed) {
+                return;
+            }
+
+            try {
+                Integer id = this.statementIds.get(sql);
+
+                if (id == null) {
+                    id = this.statementIds.size();
+                    this.statementIds.put(sql, id);
+
+                    this.out.writeByte(STATEMENT);
+                    writeVarLong(this.out, id);
+                    writeString(this.out, sql);
+                }
+
+                this.out.writeByte(EXECUTION);
+                writeVarLong(this.out, Math.max(0, started - this.sessionStart));
+                writeVarLong(this.out, nanos);
+                writeVarLong(this.out, id);
+                this.out.writeByte(failed ? FAILED : 0);
+                writeVarLong(this.out, zigZag(rows));
+                writeVarLong(this.out, params.length);
+
+                for (Object param : params) {
+                    writeParam(this.out, param);
+                }
+
+                this.recorded++;
+            } catch (IOException e) {
+                log.error("Failed capturing statements to " + this.file + ", capture stopped: " + e.getMessage());
+                this.closeQuietly();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of statements recorded.
+     *
+     * @return The number of statements.
+     */
+    public long getRecorded() {
+        this.lock.lock();
+
+        try {
+            return this.recorded;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Stop capturing and write the buffered statements to the file.
+     *
+     * @throws IOException If writing the file fails.
+     */
+    @Override
+    public void close() throws IOException {
+        this.lock.lock();
+
+        try {
+            if (this.closed) {
+                return;
+            }
+
+            this.closed = true;
+            this.flusher.shutdown();
+            this.out.close();
+
+            log.info("Captured " + this.recorded + " statements to " + this.file);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Write the buffered records to the file, so a killed process loses as few as possible.
+     */
+    private void flush() {
+        this.lock.lock();
+
+        try {
+            if (!this.closed) {
+                this.out.flush();
+            }
+        } catch (IOException e) {
+            log.error("Failed capturing statements to " + this.file + ", capture stopped: " + e.getMessage());
+            this.closeQuietly();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Close the file after writing failed.
+     */
+    private void closeQuietly() {
+        this.closed = true;
+        this.flusher.shutdown();
+
+        try {
+            this.out.close();
+        } catch (IOException e) {
+            log.debug("Failed closing " + this.file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Cut off an incomplete record a killed process left at the end of a capture file,
+     * so the next session is appended right after the last complete record.
+     *
+     * @param file The capture file, nothing happens if it does not exist.
+     * @throws IOException If reading the file fails or it is no capture file.
+     */
+    private static void cutIncompleteRecord(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        long complete;
+
+        try (Reader reader = new Reader(file)) {
+            try {
+                while (reader.next() != null) {
+                    // Only the end of the last complete record is needed.
+                }
+
+                return;
+            } catch (EOFException e) {
+                complete = reader.getComplete();
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            log.warn("Cutting off an incomplete record at the end of " + file + ", " + (channel.size() - complete) + " bytes");
+
+            channel.truncate(complete);
+        }
+    }
+
+    /**
+     * Write the value of a parameter placeholder with its type.
+     * Types other than numbers, booleans, strings and timestamps are written as strings.
+     *
+     * @param out   The stream to write to.
+     * @param param The value.
+     * @throws IOException If writing fails.
+     */
+    private static void writeParam(DataOutputStream out, Object param) throws IOException {
+        if (param == null) {
+            out.writeByte(NULL);
+        } else if (param instanceof Integer || param instanceof Short || param instanceof Byte) {
+            out.writeByte(INT);
+            writeVarLong(out, zigZag(((Number) param).longValue()));
+        } else if (param instanceof Long value) {
+            out.writeByte(LONG);
+            writeVarLong(out, zigZag(value));
+        } else if (param instanceof Boolean value) {
+            out.writeByte(value ? TRUE : FALSE);
+        } else if (param instanceof Double || param instanceof Float) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(((Number) param).doubleValue());
+        } else if (param instanceof Timestamp value) {
+            out.writeByte(TIMESTAMP);
+            writeVarLong(out, zigZag(value.getTime()));
+            writeVarLong(out, value.getNanos());
+        } else {
+            out.writeByte(STRING);
+            writeString(out, param.toString());
+        }
+    }
+
+    /**
+     * Read the value of a parameter placeholder written by writeParam().
+     *
+     * @param in The stream to read from.
+     * @return The value.
+     * @throws IOException If reading fails or the type is unknown.
+     */
+    private static Object readParam(DataInputStream in) throws IOException {
+        int tag = in.readUnsignedByte();
+
+        return switch (tag) {
+            case NULL -> null;
+            case INT -> (int) unZigZag(readVarLong(in));
+            case LONG -> unZigZag(readVarLong(in));
+            case TRUE -> true;
+            case FALSE -> false;
+            case DOUBLE -> in.readDouble();
+            case STRING -> readString(in);
+            case TIMESTAMP -> {
+                Timestamp value = new Timestamp(unZigZag(readVarLong(in)));
+
+                value.setNanos((int) readVarLong(in));
+
+                yield value;
+            }
+            default -> throw new IOException("Unknown parameter type " + tag);
+        };
+    }
+
+    /**
+     * Write a string as its length followed by its UTF-8 bytes.
+     *
+     * @param out   The stream to write to.
+     * @param value The string.
+     * @throws IOException If writing fails.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by writeString().
+     *
+     * @param in The stream to read from.
+     * @return The string.
+     * @throws IOException If reading fails.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+
+        in.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write a non-negative number with 7 bits per byte, small numbers take a single byte.
+     *
+     * @param out   The stream to write to.
+     * @param value The number, negative numbers must be zig-zag encoded first.
+     * @throws IOException If writing fails.
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Read a number written by writeVarLong().
+     *
+     * @param in The stream to read from.
+     * @return The number.
+     * @throws IOException If reading fails.
+     */
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed number");
+    }
+
+    /**
+     * Map a signed number to a non-negative one, so small negative numbers stay short.
+     *
+     * @param value The number.
+     * @return The encoded number.
+     */
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Reverse zigZag().
+     *
+     * @param value The encoded number.
+     * @return The number.
+     */
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads the statements of a capture file back, in the order they were recorded.
+     */
+    static final class Reader implements Closeable {
+        // Counts the bytes read, to know where the last complete record ended.
+        private final CountingInputStream counter;
+
+        // Reads the records.
+        private final DataInputStream in;
+
+        // The texts of the statements defined in the current session, by id.
+        private final Map<Integer, String> statements = new HashMap<>();
+
+        // Where the current session starts on the time line of all sessions.
+        private long sessionOffset = 0;
+
+        // The time of the last statement read.
+        private long last = 0;
+
+        // The number of bytes of complete records read.
+        private long complete = 0;
+
+        /**
+         * Constructor for the Reader object.
+         *
+         * @param file The capture file.
+         * @throws IOException If opening the file fails.
+         */
+        Reader(Path file) throws IOException {
+            this.counter = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+            this.in = new DataInputStream(this.counter);
+        }
+
+        /**
+         * Read the next recorded statement.
+         *
+         * @return The statement, null at the end of the file.
+         * @throws EOFException If the file ends within a record.
+         * @throws IOException  If reading fails or the file is no capture file.
+         */
+        Recorded next() throws IOException {
+            while (true) {
+                int type = this.in.read();
+
+                if (type < 0) {
+                    return null;
+                }
+
+                switch (type) {
+                    case SESSION -> {
+                        this.in.readLong();
+                        this.statements.clear();
+                        this.sessionOffset = this.last;
+                    }
+                    case STATEMENT -> this.statements.put((int) readVarLong(this.in), readString(this.in));
+                    case EXECUTION -> {
+                        long time = this.sessionOffset + readVarLong(this.in);
+                        long nanos = readVarLong(this.in);
+                        String sql = this.statements.get((int) readVarLong(this.in));
+                        boolean failed = (this.in.readUnsignedByte() & FAILED) != 0;
+                        long rows = unZigZag(readVarLong(this.in));
+                        Object[] params = new Object[(int) readVarLong(this.in)];
+
+                        for (int i = 0; i < params.length; i++) {
+                            params[i] = readParam(this.in);
+                        }
+
+                        if (sql == null) {
+                            throw new IOException("Statement used before it was defined, at byte " + this.complete);
+                        }
+
+                        this.last = time;
+                        this.complete = this.counter.count;
+
+                        return new Recorded(time, nanos, sql, params, rows, failed);
+                    }
+                    default -> throw new IOException("Unknown record type " + type + " at byte " + this.complete);
+                }
+
+                this.complete = this.counter.count;
+            }
+        }
+
+        /**
+         * Get where the last complete record read ends.
+         *
+         * @return The number of bytes of complete records.
+         */
+        long getComplete() {
+            return this.complete;
+        }
+
+        /**
+         * Close the file.
+         *
+         * @throws IOException If closing fails.
+         */
+        @Override
+        public void close() throws IOException {
+            this.in.close();
+        }
+    }
+
+    /**
+     * Stream that counts the bytes read through it.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        // The number of bytes read.
+        private long count = 0;
+
+        /**
+         * Constructor for the CountingInputStream object.
+         *
+         * @param in The stream to read from.
+         */
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        /**
+         * Read a byte.
+         *
+         * @return The byte, -1 at the end.
+         * @throws IOException If reading fails.
+         */
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+
+            if (b >= 0) {
+                this.count++;
+            }
+
+            return b;
+        }
+
+        /**
+         * Read bytes into an array.
+         *
+         * @param b   The array.
+         * @param off Where to put the first byte.
+         * @param len The maximum number of bytes.
+         * @return The number of bytes read, -1 at the end.
+         * @throws IOException If reading fails.
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+
+            if (read > 0) {
+                this.count += read;
+            }
+
+            return read;
+        }
+
+        /**
+         * Skip bytes.
+         *
+         * @param n The number of bytes to skip.
+         * @return The number of bytes skipped.
+         * @throws IOException If skipping fails.
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+
+            this.count += skipped;
+
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,541 @@
+package quest.flo;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class that runs a workload recorded by WorkloadCapture again against a database and measures it.
+ * The statements are started at their original pace, sped up by a factor, or as fast as possible,
+ * and run on a fixed number of connections. Sessions in the file are replayed one after the other.
+ * Only SELECT statements are replayed, unless writes are explicitly replayed into a database of their own,
+ * so a capture that includes TRUNCATE, DELETE or UPDATE statements can not change the data that was captured.
+ * <p>
+ * When paced, the latency of a statement is measured from the time it was due, not from when a connection
+ * picked it up, so too few connections show up as higher latencies instead of a slower replay.
+ *
+ * @author Florian.WINDISCH
+ */
+public class WorkloadReplay {
+    // Logger for the WorkloadReplay-Class.
+    private static final Logger log = LogManager.getLogger(WorkloadReplay.class);
+
+    // Marks the end of the workload for the workers.
+    private static final Execution END = new Execution(null, new Object[0], 0, 0);
+
+    // The URL of the server to replay on.
+    private final String url;
+
+    // The user to connect as.
+    private final String user;
+
+    // The password of the user, may be null.
+    private final String password;
+
+    // The name of the database the reads are replayed against.
+    private final String dbName;
+
+    // The name of the database all statements are replayed against, including writes. Null to replay only reads.
+    private String writeDbName = null;
+
+    // How much faster than recorded the statements are started, 0 to start them as fast as possible.
+    private double speed = 1;
+
+    // The number of connections the statements are run on.
+    private int concurrency = 4;
+
+    /**
+     * A recorded statement that is due to run.
+     *
+     * @param sql      The statement.
+     * @param params   The values of its parameter placeholders.
+     * @param due      When the statement is due (System.nanoTime()), 0 if not paced.
+     * @param captured How long the statement took when it was recorded.
+     */
+    private record Execution(String sql, Object[] params, long due, long captured) {
+    }
+
+    /**
+     * The measurements of a replay.
+     *
+     * @param statements The number of statements run.
+     * @param failed     The number of statements that failed.
+     * @param skipped    The number of statements that were not run, since only reads were replayed.
+     * @param nanos      How long the replay took.
+     * @param latencies  The latencies of the replayed statements in nanoseconds, sorted.
+     * @param captured   The latencies of the same statements when they were recorded, sorted.
+     */
+    public record Result(long statements, long failed, long skipped, long nanos, long[] latencies, long[] captured) {
+        /**
+         * Get the number of statements run per second.
+         *
+         * @return The throughput.
+         */
+        public double throughput() {
+            return this.nanos == 0 ? 0 : this.statements * 1e9 / this.nanos;
+        }
+
+        /**
+         * Get a percentile of the replayed latencies.
+         *
+         * @param percent The percentile, for example 99 for the latency 99% of the statements stayed below.
+         * @return The latency in nanoseconds, 0 if no statement was run.
+         */
+        public long percentile(double percent) {
+            return percentile(this.latencies, percent);
+        }
+
+        /**
+         * Get a percentile of sorted latencies with the nearest rank method.
+         *
+         * @param sorted  The sorted latencies.
+         * @param percent The percentile.
+         * @return The latency, 0 if there are none.
+         */
+        private static long percentile(long[] sorted, double percent) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+
+            int rank = (int) Math.ceil(percent / 100 * sorted.length);
+
+            return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+        }
+
+        /**
+         * Describe the measurements, with the recorded latencies for comparison.
+         *
+         * @return The description.
+         */
+        @Override
+        public String toString() {
+            StringBuilder description = new StringBuilder();
+
+            description.append("Replayed ").append(this.statements).append(" statements in ")
+                    .append(TimeUnit.NANOSECONDS.toMillis(this.nanos)).append(" ms (")
+                    .append(String.format(Locale.ROOT, "%.1f", this.throughput())).append(" per second), ")
+                    .append(this.failed).append(" failed, ").append(this.skipped).append(" skipped\n");
+            description.append("Latency (ms)   p50      p90      p99      max\n");
+
+            appendLatencies(description, "replayed", this.latencies);
+            appendLatencies(description, "captured", this.captured);
+
+            return description.toString();
+        }
+
+        /**
+         * Add a line with the percentiles of latencies to a description.
+         *
+         * @param description The description.
+         * @param name        The name of the line.
+         * @param sorted      The sorted latencies.
+         */
+        private static void appendLatencies(StringBuilder description, String name, long[] sorted) {
+            description.append(String.format(Locale.ROOT, "%-10s%9.2f%9.2f%9.2f%9.2f%n", name,
+                    percentile(sorted, 50) / 1e6, percentile(sorted, 90) / 1e6,
+                    percentile(sorted, 99) / 1e6, percentile(sorted, 100) / 1e6));
+        }
+    }
+
+    /**
+     * Constructor for the WorkloadReplay object.
+     *
+     * @param url      The URL of the server to replay on.
+     * @param user     The user to connect as.
+     * @param password The password of the user, may be null.
+     * @param dbName   The name of the database the reads are replayed against.
+     */
+    public WorkloadReplay(String url, String user, String password, String dbName) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.dbName = dbName;
+    }
+
+    /**
+     * Set how fast the statements are started.
+     *
+     * @param speed 1 for the recorded pace, 2 for twice as fast and so on, 0 to start them as fast as possible.
+     */
+    public void setSpeed(double speed) {
+        if (speed < 0) {
+            throw new IllegalArgumentException("Speed must not be negative: " + speed);
+        }
+
+        this.speed = speed;
+    }
+
+    /**
+     * Set the number of connections the statements are run on.
+     *
+     * @param concurrency The number of connections, at least 1.
+     */
+    public void setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1: " + concurrency);
+        }
+
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Replay all statements, including the ones that write, against another database than the reads by default.
+     * The database should be a copy of the captured data that may be changed, for example on a local server.
+     *
+     * @param writeDbName The name of the database to replay against, null to replay only reads again.
+     * @throws IllegalArgumentException If it is the database the reads are replayed against.
+     */
+    public void replayWritesInto(String writeDbName) {
+        if (writeDbName != null && writeDbName.equalsIgnoreCase(this.dbName)) {
+            throw new IllegalArgumentException("Writes must be replayed into another database than " + this.dbName);
+        }
+
+        this.writeDbName = writeDbName;
+    }
+
+    /**
+     * Replay a recorded workload.
+     *
+     * @param file The file written by WorkloadCapture.
+     * @return The measurements.
+     * @throws SQLException If connecting fails.
+     * @throws IOException  If reading the file fails.
+     */
+    public Result replay(Path file) throws SQLException, IOException {
+        log.info("Replaying " + (this.writeDbName == null ? "the reads of " + file + " against " + this.dbName : file + " against " + this.writeDbName)
+                + " with speed " + this.speed + " on " + this.concurrency + " connections");
+
+        BlockingQueue<Execution> queue = new ArrayBlockingQueue<>(this.concurrency * 64);
+        List<Worker> workers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        long skipped;
+        long started;
+
+        try {
+            for (int i = 0; i < this.concurrency; i++) {
+                workers.add(new Worker(this.connect(), queue));
+            }
+
+            started = System.nanoTime();
+
+            for (int i = 0; i < workers.size(); i++) {
+                threads.add(Thread.ofPlatform().name("replay-" + i).start(workers.get(i)));
+            }
+
+            try {
+                skipped = this.dispatch(file, queue, started);
+            } finally {
+                for (int i = 0; i < threads.size(); i++) {
+                    putUninterruptibly(queue, END);
+                }
+
+                for (Thread thread : threads) {
+                    joinUninterruptibly(thread);
+                }
+            }
+        } finally {
+            for (Worker worker : workers) {
+                worker.close();
+            }
+        }
+
+        long nanos = System.nanoTime() - started;
+        long failed = 0;
+        LongList latencies = new LongList();
+        LongList captured = new LongList();
+
+        for (Worker worker : workers) {
+            failed += worker.failed;
+            latencies.addAll(worker.latencies);
+            captured.addAll(worker.captured);
+        }
+
+        Result result = new Result(latencies.size, failed, skipped, nanos, latencies.sorted(), captured.sorted());
+
+        log.info(result);
+
+        return result;
+    }
+
+    /**
+     * Read the recorded statements and hand them to the workers when they are due.
+     *
+     * @param file    The file written by WorkloadCapture.
+     * @param queue   Takes the statements to the workers.
+     * @param started When the replay started (System.nanoTime()).
+     * @return The number of statements skipped.
+     * @throws IOException If reading the file fails.
+     */
+    private long dispatch(Path file, BlockingQueue<Execution> queue, long started) throws IOException {
+        long skipped = 0;
+
+        try (WorkloadCapture.Reader reader = new WorkloadCapture.Reader(file)) {
+            for (WorkloadCapture.Recorded recorded = reader.next(); recorded != null; recorded = reader.next()) {
+                if (this.writeDbName == null && !isSelect(recorded.sql())) {
+                    skipped++;
+                    continue;
+                }
+
+                long due = 0;
+
+                if (this.speed > 0) {
+                    due = started + (long) (recorded.time() / this.speed);
+
+                    for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+
+                putUninterruptibly(queue, new Execution(recorded.sql(), recorded.params(), due, recorded.nanos()));
+            }
+        } catch (EOFException e) {
+            log.warn("Last record of " + file + " is incomplete, it was skipped");
+        }
+
+        return skipped;
+    }
+
+    /**
+     * Open a connection to run statements on.
+     *
+     * @return The connection, using the database.
+     * @throws SQLException If connecting fails.
+     */
+    private Connection connect() throws SQLException {
+        try {
+            Connection connection = DriverManager.getConnection(this.url, this.user, this.password);
+
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("USE " + (this.writeDbName == null ? this.dbName : this.writeDbName));
+            }
+
+            return connection;
+        } catch (SQLException e) {
+            String errorMessage = "Failed connecting for replay: " + e.getMessage();
+
+            log.error(errorMessage);
+
+            throw new SQLException(errorMessage, e.getSQLState(), e.getErrorCode(), e);
+        }
+    }
+
+    /**
+     * Check if a statement is a SELECT.
+     *
+     * @param sql The statement.
+     * @return True if it only reads.
+     */
+    private static boolean isSelect(String sql) {
+        return sql.stripLeading().regionMatches(true, 0, "SELECT", 0, 6);
+    }
+
+    /**
+     * Put an element into a queue, waiting for space without giving up on interrupts.
+     *
+     * @param queue   The queue.
+     * @param element The element.
+     */
+    private static void putUninterruptibly(BlockingQueue<Execution> queue, Execution element) {
+        boolean interrupted = false;
+
+        while (true) {
+            try {
+                queue.put(element);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for a thread to end without giving up on interrupts.
+     *
+     * @param thread The thread.
+     */
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs statements from the queue on its own connection and measures them.
+     */
+    private static class Worker implements Runnable {
+        // The connection the statements run on.
+        private final Connection connection;
+
+        // Takes the statements from the dispatcher.
+        private final BlockingQueue<Execution> queue;
+
+        // The prepared statements by their text, prepared once per connection.
+        private final Map<String, PreparedStatement> prepared = new HashMap<>();
+
+        // The latencies of the statements run.
+        private final LongList latencies = new LongList();
+
+        // The recorded latencies of the statements run.
+        private final LongList captured = new LongList();
+
+        // The number of statements that failed.
+        private long failed = 0;
+
+        /**
+         * Constructor for the Worker object.
+         *
+         * @param connection The connection the statements run on.
+         * @param queue      Takes the statements from the dispatcher.
+         */
+        Worker(Connection connection, BlockingQueue<Execution> queue) {
+            this.connection = connection;
+            this.queue = queue;
+        }
+
+        /**
+         * Run statements until the end of the workload.
+         */
+        @Override
+        public void run() {
+            while (true) {
+                Execution execution;
+
+                try {
+                    execution = this.queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                if (execution == END) {
+                    return;
+                }
+
+                long started = execution.due() == 0 ? System.nanoTime() : execution.due();
+
+                try {
+                    this.execute(execution);
+                } catch (SQLException e) {
+                    this.failed++;
+                    log.debug("Replayed statement failed: " + e.getMessage());
+                }
+
+                this.latencies.add(System.nanoTime() - started);
+                this.captured.add(execution.captured());
+            }
+        }
+
+        /**
+         * Run a statement and read all of its results.
+         *
+         * @param execution The statement.
+         * @throws SQLException If the statement fails.
+         */
+        private void execute(Execution execution) throws SQLException {
+            PreparedStatement statement = this.prepared.get(execution.sql());
+
+            if (statement == null) {
+                statement = this.connection.prepareStatement(execution.sql());
+                this.prepared.put(execution.sql(), statement);
+            }
+
+            for (int i = 0; i < execution.params().length; i++) {
+                statement.setObject(i + 1, execution.params()[i]);
+            }
+
+            if (statement.execute()) {
+                try (ResultSet results = statement.getResultSet()) {
+                    while (results.next()) {
+                        // The rows are read like the application would, their values are not needed.
+                    }
+                }
+            }
+        }
+
+        /**
+         * Close the prepared statements and the connection.
+         */
+        void close() {
+            try {
+                for (PreparedStatement statement : this.prepared.values()) {
+                    statement.close();
+                }
+
+                this.connection.close();
+            } catch (SQLException e) {
+                log.warn("Failed closing replay connection: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A growing list of primitive longs, so millions of latencies do not need boxing.
+     */
+    private static class LongList {
+        // The values, only the first size are used.
+        private long[] values = new long[1024];
+
+        // The number of values.
+        private int size = 0;
+
+        /**
+         * Add a value.
+         *
+         * @param value The value.
+         */
+        void add(long value) {
+            if (this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            }
+
+            this.values[this.size++] = value;
+        }
+
+        /**
+         * Add all values of another list.
+         *
+         * @param other The other list.
+         */
+        void addAll(LongList other) {
+            for (int i = 0; i < other.size; i++) {
+                this.add(other.values[i]);
+            }
+        }
+
+        /**
+         * Get the values sorted.
+         *
+         * @return A sorted copy of the values.
+         */
+        long[] sorted() {
+            long[] sorted = Arrays.copyOf(this.values, this.size);
+
+            Arrays.sort(sorted);
+
+            return sorted;
+        }
+    }
+}